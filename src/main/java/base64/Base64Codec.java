@@ -16,10 +16,10 @@ public class Base64Codec {
         try {
             try {
                 Class.forName("java.util.Base64");
-                return (Base64CodecImpl) Class.forName("com.kerb4j.common.util.base64.Java8Base64").
+                return (Base64CodecImpl) Class.forName("base64.Java8Base64").
                         getConstructor().newInstance();
             } catch (ClassNotFoundException e) {
-                return (Base64CodecImpl) Class.forName("com.kerb4j.common.util.base64.DatatypeConverterCodec").
+                return (Base64CodecImpl) Class.forName("base64.DatatypeConverterCodec").
                         getConstructor().newInstance();
             }
         } catch (Exception e) {
@@ -0,0 +1,17 @@
+package base64;
+
+import java.util.Base64;
+
+public class Java8Base64 implements Base64CodecImpl {
+
+    @Override
+    public String encodeImpl(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @Override
+    public byte[] decodeImpl(String data) {
+        return Base64.getDecoder().decode(data);
+    }
+
+}
@@ -0,0 +1,111 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out unique authenticator timestamp slots for a single {@link SpnegoClient}.
+ *
+ * <p>
+ * Active Directory rejects two authenticators from the same client carrying the same
+ * (ctime, cusec) pair as a replay. The historical work-around was to sleep 31 ms before
+ * every context; this class only waits when the current slot has already been handed out.
+ * </p>
+ *
+ * <p>
+ * A slot is {@code granularityMicros} wide. When the caller writes the slot into the
+ * authenticator, {@link #acquire()} hands it out and {@code maxLeadSlots} controls how far
+ * ahead of the wall clock it may be without waiting. When JGSS reads the clock itself at some
+ * point while building the token, the slot cannot be passed to it; instead
+ * {@link #acquireExclusive()} holds the sequencer until {@link #release()} is called after the
+ * token has been built, and the next caller waits until the clock has left the slot in which
+ * that token was finished.
+ * </p>
+ */
+final class AuthenticatorTimestampSequencer {
+
+    /** JGSS reads the wall clock with millisecond precision on some JREs. */
+    static final long JGSS_GRANULARITY_MICROS = 1000;
+
+    private final long granularityMicros;
+    private final long maxLeadSlots;
+    private final long parkNanos;
+
+    private final AtomicLong lastSlot = new AtomicLong(Long.MIN_VALUE);
+
+    /** Held from {@link #acquireExclusive()} to {@link #release()}; not a monitor, to avoid pinning virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    AuthenticatorTimestampSequencer(long granularityMicros, long maxLeadSlots) {
+        if (granularityMicros <= 0) throw new IllegalArgumentException("granularityMicros must be positive");
+        if (maxLeadSlots < 0) throw new IllegalArgumentException("maxLeadSlots must not be negative");
+        this.granularityMicros = granularityMicros;
+        this.maxLeadSlots = maxLeadSlots;
+        this.parkNanos = Math.max(TimeUnit.MICROSECONDS.toNanos(granularityMicros) / 10, 10000L);
+    }
+
+    /**
+     * Sequencer for tokens whose authenticator is created by JGSS, to be used with
+     * {@link #acquireExclusive()}: every token is built in its own wall clock millisecond.
+     */
+    static AuthenticatorTimestampSequencer forJgss() {
+        return new AuthenticatorTimestampSequencer(JGSS_GRANULARITY_MICROS, 0);
+    }
+
+    /**
+     * Reserves a slot which has not been handed out before and returns its start
+     * in microseconds since the epoch.
+     *
+     * <p>Does not block unless the reserved slot would run more than {@code maxLeadSlots}
+     * ahead of the wall clock.</p>
+     */
+    long acquire() {
+        for (;;) {
+            final long last = lastSlot.get();
+            final long now = currentSlot();
+            final long next = Math.max(now, last + 1);
+
+            if (next - now > maxLeadSlots) {
+                // slot collision - wait for the clock to move on
+                LockSupport.parkNanos(parkNanos);
+                continue;
+            }
+
+            if (lastSlot.compareAndSet(last, next)) {
+                return next * granularityMicros;
+            }
+        }
+    }
+
+    /**
+     * Waits until the previous token has been built and the clock has moved past the slot it
+     * was finished in, then holds the sequencer until {@link #release()}.
+     *
+     * <p>
+     * Tokens are built one at a time. Callers obtain the service ticket beforehand, so that the
+     * sequencer is only held while JGSS builds the token locally, not across a KDC exchange.
+     * </p>
+     */
+    void acquireExclusive() {
+        lock.lock();
+        while (currentSlot() <= lastSlot.get()) {
+            LockSupport.parkNanos(parkNanos);
+        }
+    }
+
+    /**
+     * Marks the current slot as used and lets the next caller of {@link #acquireExclusive()} in.
+     * Must be called by the thread which acquired the sequencer, after the token has been built.
+     */
+    void release() {
+        lastSlot.set(currentSlot());
+        lock.unlock();
+    }
+
+    private long currentSlot() {
+        return System.currentTimeMillis() * 1000L / granularityMicros;
+    }
+
+}
@@ -0,0 +1,174 @@
+package client;
+
+import base64.Base64Codec;
+import kdc.KdcClient;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import spnego.ConcurrentTtlCache;
+import spnego.Constants;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Creates SPNEGO tokens on behalf of users, so that a middle tier can call downstream services
+ * as the user without knowing the password of the user.
+ *
+ * <p>
+ * The evidence ticket of a user is obtained by protocol transition (S4U2Self) and exchanged
+ * for a ticket to the target service by constrained delegation (S4U2Proxy). Both are cached
+ * until shortly before they expire, the evidence per user and the proxy tickets per user and
+ * target SPN, so repeated calls for the same user and service involve no KDC exchange. Tokens
+ * are minted like those of {@link KerberosInitiator}.
+ * </p>
+ *
+ * <p>
+ * The service account needs to be allowed to delegate to the target services and, for protocol
+ * transition, to be trusted to authenticate for delegation. The KDC exchanges are performed by
+ * the {@link KdcClient} of the client, JGSS does not expose the tickets it obtains by S4U.
+ * </p>
+ *
+ * @see SpnegoClient#getConstrainedDelegation()
+ */
+public final class ConstrainedDelegation {
+
+    private static final int EVIDENCE_TICKET_CACHE_SIZE = 1024;
+    private static final int PROXY_TICKET_CACHE_SIZE = 4096;
+
+    private static final ConcurrentTtlCache.Expiry<KerberosTicket> TICKET_EXPIRY = new ConcurrentTtlCache.Expiry<KerberosTicket>() {
+        @Override
+        public long getExpirationTime(KerberosTicket ticket) {
+            return ticket.getEndTime().getTime() - KerberosInitiator.TICKET_EXPIRATION_MARGIN_MILLIS;
+        }
+    };
+
+    private final SpnegoClient spnegoClient;
+    private final KerberosInitiator kerberosInitiator;
+
+    /** Forwardable S4U2Self tickets by user principal. */
+    private final ConcurrentTtlCache<String, KerberosTicket> evidenceTickets = new ConcurrentTtlCache<>(
+            EVIDENCE_TICKET_CACHE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE, TICKET_EXPIRY, null);
+
+    /** S4U2Proxy tickets by user principal and target SPN. */
+    private final ConcurrentTtlCache<List<String>, KerberosInitiator.ServiceTicket> proxyTickets = new ConcurrentTtlCache<>(
+            PROXY_TICKET_CACHE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE,
+            new ConcurrentTtlCache.Expiry<KerberosInitiator.ServiceTicket>() {
+                @Override
+                public long getExpirationTime(KerberosInitiator.ServiceTicket serviceTicket) {
+                    return serviceTicket.endTime - KerberosInitiator.TICKET_EXPIRATION_MARGIN_MILLIS;
+                }
+            }, null);
+
+    ConstrainedDelegation(SpnegoClient spnegoClient, KerberosInitiator kerberosInitiator) {
+        this.spnegoClient = spnegoClient;
+        this.kerberosInitiator = kerberosInitiator;
+    }
+
+    public String createAuthorizationHeader(String user, URL url) throws KrbException {
+        return createAuthorizationHeaderForSPN(user, "HTTP/" + url.getHost());
+    }
+
+    public String createAuthorizationHeaderForSPN(String user, String spn) throws KrbException {
+        return Constants.NEGOTIATE_HEADER + " " + Base64Codec.encode(createTokenForSPN(user, spn));
+    }
+
+    /**
+     * Returns a SPNEGO NegTokenInit carrying a new KRB_AP_REQ for the given SPN with the given
+     * user as client.
+     *
+     * @param user user, the realm of the service is assumed if it has none
+     * @param spn service/host or service@host
+     * @return encoded token
+     */
+    public byte[] createTokenForSPN(String user, String spn) throws KrbException {
+        return kerberosInitiator.createToken(getProxyTicket(qualify(user), KerberosInitiator.normalize(spn), null));
+    }
+
+    /**
+     * Returns a SPNEGO NegTokenInit for the given SPN with the client of the given evidence
+     * ticket as client, e.g. the forwardable ticket a user has authenticated with.
+     *
+     * @param evidenceTicket ticket of the user to this service
+     * @param spn service/host or service@host
+     * @return encoded token
+     */
+    public byte[] createTokenForSPN(KerberosTicket evidenceTicket, String spn) throws KrbException {
+        return kerberosInitiator.createToken(getProxyTicket(evidenceTicket.getClient().getName(),
+                KerberosInitiator.normalize(spn), evidenceTicket));
+    }
+
+    /**
+     * Returns the ticket of the given user to this service obtained by protocol transition.
+     *
+     * @param user user, the realm of the service is assumed if it has none
+     */
+    public KerberosTicket impersonate(String user) throws KrbException {
+        try {
+            return evidenceTickets.get(qualify(user), new ConcurrentTtlCache.Loader<String, KerberosTicket>() {
+                @Override
+                public KerberosTicket load(String user) throws Exception {
+                    return getKdcClient().requestS4U2SelfTicket(spnegoClient.getTgt(), new KerberosPrincipal(user));
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KrbException) throw (KrbException) e.getCause();
+            throw new KrbException("Failed to impersonate " + user, e.getCause());
+        }
+    }
+
+    /**
+     * Drops the cached tickets of the given user, e.g. after the user has been disabled.
+     */
+    public void invalidate(String user) {
+        String qualifiedUser = qualify(user);
+        evidenceTickets.invalidate(qualifiedUser);
+        for (List<String> key : proxyTickets.keySet()) {
+            if (key.get(0).equals(qualifiedUser)) proxyTickets.invalidate(key);
+        }
+    }
+
+    /**
+     * Drops the cached tickets of all users.
+     */
+    public void invalidateAll() {
+        evidenceTickets.invalidateAll();
+        proxyTickets.invalidateAll();
+    }
+
+    private KerberosInitiator.ServiceTicket getProxyTicket(final String user, String spn,
+                                                           final KerberosTicket evidenceTicket) throws KrbException {
+        try {
+            return proxyTickets.get(Arrays.asList(user, spn), new ConcurrentTtlCache.Loader<List<String>, KerberosInitiator.ServiceTicket>() {
+                @Override
+                public KerberosInitiator.ServiceTicket load(List<String> key) throws Exception {
+                    KerberosTicket evidence = null == evidenceTicket ? impersonate(user) : evidenceTicket;
+                    return new KerberosInitiator.ServiceTicket(
+                            getKdcClient().requestProxyTicket(spnegoClient.getTgt(), evidence, key.get(1)));
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KrbException) throw (KrbException) e.getCause();
+            throw new KrbException("Failed to obtain ticket for " + spn + " on behalf of " + user, e.getCause());
+        }
+    }
+
+    private KdcClient getKdcClient() {
+        KdcClient kdcClient = spnegoClient.getKdcClient();
+        if (null == kdcClient) {
+            throw new IllegalStateException("Constrained delegation requires a KdcClient, see SpnegoClient.withKdcClient");
+        }
+        return kdcClient;
+    }
+
+    /**
+     * Appends the realm of the service to user names without one.
+     */
+    private String qualify(String user) {
+        if (user.indexOf('@') >= 0) return user;
+        return user + '@' + spnegoClient.getTgt().getClient().getRealm();
+    }
+
+}
@@ -0,0 +1,251 @@
+package client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the credentials held by the Subjects of a {@link SpnegoClient}.
+ *
+ * <p>
+ * A Subject replaced by a login or a TGT renewal is retired after a grace period, during which
+ * threads that obtained it before the replacement may still use it: its credentials which the
+ * current Subject does not share are destroyed and, once no Subject of a login is left, the
+ * login is logged out. Service tickets beyond the configured number are removed from the
+ * current Subject, least recently used first.
+ * </p>
+ */
+final class CredentialLifecycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialLifecycle.class);
+
+    /** Time a replaced Subject stays usable for threads which still hold it. */
+    static final long RETIREMENT_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    static final int DEFAULT_MAX_SERVICE_TICKETS = 256;
+
+    private volatile int maxServiceTickets = DEFAULT_MAX_SERVICE_TICKETS;
+
+    /** Service tickets are trimmed at least this often even if none has been added, to drop expired ones. */
+    private static final long TRIM_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /** {@link System#nanoTime()} of the last use by service name without realm, see {@link #toKey(String)}. */
+    private final ConcurrentMap<String, Long> lastUsed = new ConcurrentHashMap<>();
+
+    /** State of the Subject after the last trim, a benign race at worst causes an extra trim. */
+    private volatile TrimState trimState;
+
+    private final AtomicInteger pendingRetirements = new AtomicInteger();
+    private final LongAdder retiredSubjects = new LongAdder();
+    private final LongAdder destroyedCredentials = new LongAdder();
+    private final LongAdder evictedServiceTickets = new LongAdder();
+
+    void setMaxServiceTickets(int maxServiceTickets) {
+        if (maxServiceTickets <= 0) throw new IllegalArgumentException("maxServiceTickets must be positive");
+        this.maxServiceTickets = maxServiceTickets;
+    }
+
+    /**
+     * Records the use of the service ticket for the given service.
+     *
+     * @param serviceName service/host or service@host, optionally followed by @REALM
+     */
+    void touch(String serviceName) {
+        lastUsed.put(toKey(serviceName), System.nanoTime());
+    }
+
+    /**
+     * Trims the service tickets of the Subject if it has gained credentials since the last trim,
+     * e.g. a service ticket added by JGSS, or if the last trim is older than a minute.
+     */
+    void trimIfChanged(Subject subject) {
+        TrimState trimState = this.trimState;
+        if (null != trimState && trimState.subject == subject
+                && subject.getPrivateCredentials().size() <= trimState.credentials
+                && System.currentTimeMillis() < trimState.time + TRIM_INTERVAL_MILLIS) {
+            return;
+        }
+        trim(subject);
+    }
+
+    /**
+     * Removes expired service tickets and, above the configured number, the least recently
+     * used ones from the Subject. Removed tickets are not destroyed: a JGSS context may be
+     * using them right now.
+     */
+    void trim(Subject subject) {
+
+        long now = System.currentTimeMillis();
+        List<KerberosTicket> serviceTickets = new ArrayList<>();
+
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (isTgt(ticket)) continue;
+            if (ticket.isDestroyed() || null == ticket.getEndTime() || ticket.getEndTime().getTime() <= now) {
+                subject.getPrivateCredentials().remove(ticket);
+            } else {
+                serviceTickets.add(ticket);
+            }
+        }
+
+        int excess = serviceTickets.size() - maxServiceTickets;
+        if (excess > 0) {
+
+            Collections.sort(serviceTickets, new Comparator<KerberosTicket>() {
+                @Override
+                public int compare(KerberosTicket o1, KerberosTicket o2) {
+                    return Long.compare(lastUse(o1), lastUse(o2));
+                }
+
+                private long lastUse(KerberosTicket ticket) {
+                    Long lastUse = lastUsed.get(toKey(ticket.getServer().getName()));
+                    return null == lastUse ? Long.MIN_VALUE : lastUse;
+                }
+            });
+
+            for (KerberosTicket ticket : serviceTickets.subList(0, excess)) {
+                subject.getPrivateCredentials().remove(ticket);
+                evictedServiceTickets.increment();
+            }
+
+        }
+
+        if (lastUsed.size() > 4 * maxServiceTickets) {
+            // forget services whose tickets are gone
+            Set<String> held = new HashSet<>();
+            for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+                held.add(toKey(ticket.getServer().getName()));
+            }
+            lastUsed.keySet().retainAll(held);
+        }
+
+        this.trimState = new TrimState(subject, subject.getPrivateCredentials().size(), now);
+
+    }
+
+    void retirementScheduled() {
+        pendingRetirements.incrementAndGet();
+    }
+
+    /**
+     * Destroys the credentials of the retired Subject which the current Subject does not hold
+     * and logs the login of the retired Subject out if the current Subject comes from another.
+     *
+     * @param current current Subject of the client, may be null
+     * @param currentLoginContext login of the current Subject, may be null
+     */
+    void retire(Subject retired, LoginContext retiredLoginContext, Subject current, LoginContext currentLoginContext) {
+
+        pendingRetirements.decrementAndGet();
+        retiredSubjects.increment();
+
+        Set<Object> kept = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        if (null != current) {
+            synchronized (current.getPrivateCredentials()) {
+                kept.addAll(current.getPrivateCredentials());
+            }
+        }
+
+        if (null != retiredLoginContext && retiredLoginContext != currentLoginContext) try {
+            // the login module removes and destroys the credentials it has added
+            retiredLoginContext.logout();
+        } catch (LoginException e) {
+            LOGGER.debug("Failed to log out retired login", e);
+        }
+
+        List<Object> credentials;
+        synchronized (retired.getPrivateCredentials()) {
+            credentials = new ArrayList<Object>(retired.getPrivateCredentials());
+        }
+
+        for (Object credential : credentials) {
+            if (kept.contains(credential) || !(credential instanceof Destroyable)) continue;
+            Destroyable destroyable = (Destroyable) credential;
+            if (destroyable.isDestroyed()) continue;
+            try {
+                destroyable.destroy();
+                destroyedCredentials.increment();
+            } catch (DestroyFailedException e) {
+                LOGGER.debug("Failed to destroy credential of retired Subject", e);
+            }
+        }
+
+    }
+
+    SpnegoClient.CredentialStats stats(Subject subject) {
+
+        int serviceTickets = 0;
+        int keys = 0;
+        long bytes = 0;
+
+        if (null != subject) {
+            for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+                if (ticket.isDestroyed()) continue;
+                if (!isTgt(ticket)) serviceTickets++;
+                bytes += ticket.getEncoded().length + ticket.getSessionKey().getEncoded().length;
+            }
+            for (KerberosKey key : subject.getPrivateCredentials(KerberosKey.class)) {
+                if (key.isDestroyed()) continue;
+                keys++;
+                bytes += key.getEncoded().length;
+            }
+        }
+
+        return new SpnegoClient.CredentialStats(serviceTickets, keys, bytes, pendingRetirements.get(),
+                retiredSubjects.sum(), destroyedCredentials.sum(), evictedServiceTickets.sum());
+
+    }
+
+    static boolean isTgt(KerberosTicket ticket) {
+        return ticket.getServer().getName().startsWith("krbtgt/");
+    }
+
+    /**
+     * Converts service@host, service@host@REALM and service/host@REALM to service/host, so that
+     * the names used to create tokens match the server names of tickets.
+     */
+    static String toKey(String serviceName) {
+        int slash = serviceName.indexOf('/');
+        if (slash < 0) {
+            int hostSeparator = serviceName.indexOf('@');
+            if (hostSeparator < 0) return serviceName;
+            serviceName = serviceName.substring(0, hostSeparator) + '/' + serviceName.substring(hostSeparator + 1);
+            slash = hostSeparator;
+        }
+        int realmSeparator = serviceName.lastIndexOf('@');
+        return realmSeparator > slash ? serviceName.substring(0, realmSeparator) : serviceName;
+    }
+
+    private static final class TrimState {
+
+        private final Subject subject;
+        private final int credentials;
+        private final long time;
+
+        private TrimState(Subject subject, int credentials, long time) {
+            this.subject = subject;
+            this.credentials = credentials;
+            this.time = time;
+        }
+
+    }
+
+}
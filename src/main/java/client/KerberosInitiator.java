@@ -0,0 +1,291 @@
+package client;
+
+import base64.Base64Codec;
+import kdc.ApReqEncoder;
+import kdc.KdcClient;
+import org.apache.kerby.kerberos.kerb.KrbCodec;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.crypto.EncryptionHandler;
+import org.apache.kerby.kerberos.kerb.type.KerberosTime;
+import org.apache.kerby.kerberos.kerb.type.ap.Authenticator;
+import org.apache.kerby.kerberos.kerb.type.base.CheckSum;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptedData;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionKey;
+import org.apache.kerby.kerberos.kerb.type.base.KeyUsage;
+import org.apache.kerby.kerberos.kerb.type.base.NameType;
+import org.apache.kerby.kerberos.kerb.type.base.PrincipalName;
+import org.apache.kerby.kerberos.kerb.type.ticket.Ticket;
+import spnego.ConcurrentTtlCache;
+import spnego.Constants;
+import spnego.HostNameCanonicalizer;
+import spnego.SpnegoInitToken;
+import spnego.SpnegoKerberosMechToken;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates SPNEGO tokens without going through JGSS for every request.
+ *
+ * <p>
+ * The service ticket for every SPN is obtained once, through JGSS, and cached until shortly
+ * before it expires. Each token then only requires a fresh authenticator to be encrypted
+ * with the ticket session key and framed as KRB_AP_REQ inside a SPNEGO NegTokenInit, which
+ * involves no locking and can be done on any number of threads in parallel.
+ * </p>
+ *
+ * <p>
+ * Tokens do not request mutual authentication: there is no context to process the reply with.
+ * Use {@link SpnegoContext} when the server response has to be verified.
+ * </p>
+ *
+ * @see SpnegoClient#getKerberosInitiator()
+ */
+public final class KerberosInitiator {
+
+    /** Checksum type of the GSS-API authenticator checksum, RFC 4121 section 4.1.1 */
+    private static final int GSS_CHECKSUM_TYPE = 0x8003;
+
+    private static final int GSS_C_CONF_FLAG = 16;
+    private static final int GSS_C_INTEG_FLAG = 32;
+
+    /** Lgth, zero channel bindings and flags of the GSS-API authenticator checksum. */
+    private static final byte[] GSS_CHECKSUM = new byte[]{
+            16, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            GSS_C_CONF_FLAG | GSS_C_INTEG_FLAG, 0, 0, 0
+    };
+
+    /** Service tickets are renewed this long before they expire to tolerate clock skew. */
+    static final long TICKET_EXPIRATION_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int SERVICE_TICKET_CACHE_SIZE = 1024;
+
+    private final SpnegoClient spnegoClient;
+
+    /** Microsecond slots written into the authenticator directly, allowed to run 1 ms ahead. */
+    private final AuthenticatorTimestampSequencer authenticatorTimestampSequencer =
+            new AuthenticatorTimestampSequencer(1, 1000);
+
+    private final ConcurrentTtlCache<String, ServiceTicket> serviceTickets = new ConcurrentTtlCache<>(
+            SERVICE_TICKET_CACHE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE,
+            new ConcurrentTtlCache.Expiry<ServiceTicket>() {
+                @Override
+                public long getExpirationTime(ServiceTicket serviceTicket) {
+                    return serviceTicket.endTime - TICKET_EXPIRATION_MARGIN_MILLIS;
+                }
+            }, null);
+
+    KerberosInitiator(SpnegoClient spnegoClient) {
+        this.spnegoClient = spnegoClient;
+    }
+
+    public String createAuthorizationHeader(URL url) throws KrbException {
+        return createAuthorizationHeaderForSPN("HTTP/" + url.getHost());
+    }
+
+    public String createAuthorizationHeaderForSPN(String spn) throws KrbException {
+        return Constants.NEGOTIATE_HEADER + " " + Base64Codec.encode(createTokenForSPN(spn));
+    }
+
+    /**
+     * Returns a SPNEGO NegTokenInit carrying a new KRB_AP_REQ for the given SPN.
+     *
+     * @param spn service/host or service@host
+     * @return encoded token
+     */
+    public byte[] createTokenForSPN(String spn) throws KrbException {
+
+        return createToken(getServiceTicket(spn));
+
+    }
+
+    /**
+     * Returns a SPNEGO NegTokenInit carrying a new KRB_AP_REQ for the given ticket.
+     */
+    byte[] createToken(ServiceTicket serviceTicket) throws KrbException {
+
+        long timestamp = authenticatorTimestampSequencer.acquire();
+
+        Authenticator authenticator = new Authenticator();
+        authenticator.setAuthenticatorVno(5);
+        authenticator.setCrealm(serviceTicket.clientRealm);
+        authenticator.setCname(serviceTicket.clientName);
+        authenticator.setCksum(new CheckSum(GSS_CHECKSUM_TYPE, GSS_CHECKSUM));
+        authenticator.setCtime(new KerberosTime(timestamp / 1000000 * 1000));
+        authenticator.setCusec((int) (timestamp % 1000000));
+        authenticator.setSeqNumber(ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE);
+
+        EncryptedData encryptedAuthenticator = EncryptionHandler.encrypt(
+                KrbCodec.encode(authenticator), serviceTicket.sessionKey, KeyUsage.AP_REQ_AUTH);
+
+        byte[] apReq = ApReqEncoder.encode(serviceTicket.encodedTicket, encryptedAuthenticator);
+
+        return SpnegoInitToken.encode(SpnegoKerberosMechToken.encode(apReq));
+
+    }
+
+    /**
+     * Obtains the service ticket for the given SPN unless a valid one is cached already.
+     *
+     * @return end time of the service ticket
+     */
+    public Date prefetch(String spn) throws KrbException {
+        return new Date(getServiceTicket(spn).endTime);
+    }
+
+    /**
+     * Obtains a new service ticket for the given SPN from the KDC. Tokens keep being created
+     * with the cached ticket until the new one is available.
+     *
+     * @return end time of the new service ticket
+     */
+    public Date renew(String spn) throws KrbException {
+
+        String normalizedSpn = normalize(spn);
+
+        ServiceTicket current = serviceTickets.getIfPresent(normalizedSpn);
+        Subject subject = spnegoClient.getSubject();
+        if (null != current) {
+            subject.getPrivateCredentials().remove(current.kerberosTicket);
+        }
+        KerberosTicket stale = findServiceTicket(subject, normalizedSpn);
+        if (null != stale) {
+            subject.getPrivateCredentials().remove(stale);
+        }
+
+        ServiceTicket renewed;
+        try {
+            renewed = new ServiceTicket(acquireServiceTicket(normalizedSpn));
+        } catch (KrbException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new KrbException("Failed to obtain service ticket for " + spn, e);
+        }
+
+        serviceTickets.put(normalizedSpn, renewed);
+        return new Date(renewed.endTime);
+
+    }
+
+    /**
+     * Drops the cached service ticket of the given SPN, e.g. after the server rejected it.
+     */
+    public void invalidate(String spn) {
+        serviceTickets.invalidate(normalize(spn));
+    }
+
+    private ServiceTicket getServiceTicket(String spn) throws KrbException {
+        try {
+            return serviceTickets.get(normalize(spn), new ConcurrentTtlCache.Loader<String, ServiceTicket>() {
+                @Override
+                public ServiceTicket load(String spn) throws Exception {
+                    return new ServiceTicket(acquireServiceTicket(spn));
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KrbException) throw (KrbException) e.getCause();
+            throw new KrbException("Failed to obtain service ticket for " + spn, e.getCause());
+        }
+    }
+
+    /**
+     * Looks the service ticket up in the client Subject or obtains it from the KDC, through the
+     * {@link KdcClient} of the client if it has one and through JGSS otherwise, and stores it
+     * in the Subject.
+     */
+    private KerberosTicket acquireServiceTicket(String spn) throws Exception {
+
+        Subject subject = spnegoClient.getSubject();
+
+        KerberosTicket serviceTicket = findServiceTicket(subject, spn);
+        if (null != serviceTicket) return serviceTicket;
+
+        KdcClient kdcClient = spnegoClient.getKdcClient();
+        if (null != kdcClient) {
+            serviceTicket = kdcClient.requestServiceTicket(spnegoClient.getTgt(), spn);
+            subject.getPrivateCredentials().add(serviceTicket);
+            spnegoClient.serviceTicketUsed(spn, subject);
+            spnegoClient.persistCredentials();
+            return serviceTicket;
+        }
+
+        byte[] token;
+        SpnegoContext spnegoContext = spnegoClient.createContextForSPN(spn);
+        try {
+            token = spnegoContext.createToken();
+        } finally {
+            spnegoContext.close();
+        }
+
+        spnegoClient.persistCredentials();
+
+        serviceTicket = findServiceTicket(subject, spn);
+        if (null != serviceTicket) return serviceTicket;
+
+        // JGSS may have canonicalized the host name, take the ticket its token presents; other
+        // threads may be adding tickets of other services to the Subject meanwhile
+        Ticket presented = new SpnegoInitToken(token).getSpnegoKerberosMechToken().getApRequest().getTicket();
+        String serverName = String.join("/", presented.getSname().getNameStrings()) + '@' + presented.getRealm();
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (serverName.equals(ticket.getServer().getName()) && isUsable(ticket)) return ticket;
+        }
+
+        throw new KrbException("No service ticket for " + spn + " in Subject");
+
+    }
+
+    private static KerberosTicket findServiceTicket(Subject subject, String spn) {
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            String serverName = ticket.getServer().getName();
+            if (serverName.length() > spn.length() && serverName.startsWith(spn)
+                    && '@' == serverName.charAt(spn.length()) && isUsable(ticket)) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isUsable(KerberosTicket ticket) {
+        return !ticket.isDestroyed() && null != ticket.getEndTime()
+                && ticket.getEndTime().getTime() - TICKET_EXPIRATION_MARGIN_MILLIS > System.currentTimeMillis();
+    }
+
+    /**
+     * Converts service@host to service/host and canonicalizes the host.
+     */
+    static String normalize(String spn) {
+        return HostNameCanonicalizer.getDefault().canonicalizeSPN(spn.indexOf('/') < 0 ? spn.replace('@', '/') : spn);
+    }
+
+    /**
+     * Everything needed to create authenticators, extracted once from a {@link KerberosTicket}.
+     */
+    static final class ServiceTicket {
+
+        final KerberosTicket kerberosTicket;
+        final byte[] encodedTicket;
+        final EncryptionKey sessionKey;
+        final PrincipalName clientName;
+        final String clientRealm;
+        final long endTime;
+
+        ServiceTicket(KerberosTicket ticket) {
+            KerberosPrincipal client = ticket.getClient();
+            this.kerberosTicket = ticket;
+            this.encodedTicket = ticket.getEncoded();
+            this.sessionKey = new EncryptionKey(ticket.getSessionKeyType(), ticket.getSessionKey().getEncoded());
+            this.clientName = new PrincipalName(client.getName(), NameType.fromValue(client.getNameType()));
+            this.clientRealm = client.getRealm();
+            this.endTime = ticket.getEndTime().getTime();
+        }
+
+    }
+
+}
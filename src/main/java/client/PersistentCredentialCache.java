@@ -0,0 +1,362 @@
+package client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * File backed Kerberos credential cache in the MIT ccache format (version 4).
+ *
+ * <p>
+ * Lets a {@link SpnegoClient} start with the TGT and service tickets of a previous run instead of
+ * contacting the KDC, see {@link SpnegoClient#withCredentialCache(PersistentCredentialCache)}.
+ * The file is read through a memory mapping and replaced atomically on every update, so readers
+ * in other processes never see a partially written cache.
+ * </p>
+ *
+ * <p>
+ * Only tickets are stored, never long term keys. A client warm started from the cache can therefore
+ * initiate contexts, but has no keys to accept them with. Each cache file must belong to a single
+ * client identity.
+ * </p>
+ */
+public final class PersistentCredentialCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentCredentialCache.class);
+
+    private static final int FILE_FORMAT_VERSION_3 = 0x0503;
+    private static final int FILE_FORMAT_VERSION_4 = 0x0504;
+
+    private static final int ADDRESS_TYPE_INET = 2;
+    private static final int ADDRESS_TYPE_INET6 = 24;
+
+    private static final int NAME_TYPE_PRINCIPAL = 1;
+
+    /** Realm of the configuration entries MIT Kerberos keeps in the cache. */
+    private static final String CONFIGURATION_REALM = "X-CACHECONF:";
+
+    private final Path path;
+
+    private final ReentrantLock storeLock = new ReentrantLock();
+
+    public PersistentCredentialCache(String path) {
+        this(Paths.get(path));
+    }
+
+    public PersistentCredentialCache(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the tickets in the cache which have not expired yet.
+     *
+     * @return tickets, empty if the file does not exist or cannot be parsed
+     */
+    public List<KerberosTicket> load() {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readCredentials(buffer, System.currentTimeMillis());
+
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read credential cache " + path, e);
+            return Collections.emptyList();
+        }
+
+    }
+
+    /**
+     * Replaces the cache content with the unexpired tickets of the given Subject.
+     *
+     * @param subject Subject holding a TGT
+     */
+    public void store(Subject subject) throws IOException {
+        // not a monitor, file I/O under it would pin virtual threads
+        storeLock.lock();
+        try {
+            write(subject);
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    private void write(Subject subject) throws IOException {
+
+        long now = System.currentTimeMillis();
+
+        List<KerberosTicket> tickets = new ArrayList<>();
+        KerberosPrincipal primaryPrincipal = null;
+
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.isDestroyed() || null == ticket.getEndTime() || ticket.getEndTime().getTime() <= now) continue;
+            if (null == primaryPrincipal || isTgt(ticket)) primaryPrincipal = ticket.getClient();
+            tickets.add(ticket);
+        }
+
+        if (null == primaryPrincipal) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeShort(FILE_FORMAT_VERSION_4);
+        out.writeShort(0); // no header fields
+        writePrincipal(out, primaryPrincipal);
+        for (KerberosTicket ticket : tickets) {
+            writeCredential(out, ticket);
+        }
+        out.flush();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                LOGGER.trace("POSIX permissions not supported for " + temporary);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+    }
+
+    static boolean isTgt(KerberosTicket ticket) {
+        return ticket.getServer().getName().startsWith("krbtgt");
+    }
+
+    // reading
+
+    private static List<KerberosTicket> readCredentials(ByteBuffer buffer, long now) throws IOException {
+
+        try {
+
+            int version = buffer.getShort() & 0xFFFF;
+            if (FILE_FORMAT_VERSION_4 == version) {
+                int headerLength = buffer.getShort() & 0xFFFF;
+                buffer.position(buffer.position() + headerLength);
+            } else if (FILE_FORMAT_VERSION_3 != version) {
+                throw new IOException("Unsupported credential cache version " + Integer.toHexString(version));
+            }
+
+            readPrincipal(buffer); // default principal
+
+            List<KerberosTicket> tickets = new ArrayList<>();
+
+            while (buffer.hasRemaining()) {
+                KerberosTicket ticket = readCredential(buffer, version);
+                if (null != ticket && ticket.getEndTime().getTime() > now) {
+                    tickets.add(ticket);
+                }
+            }
+
+            return tickets;
+
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated credential cache", e);
+        }
+
+    }
+
+    private static KerberosTicket readCredential(ByteBuffer buffer, int version) throws IOException {
+
+        KerberosPrincipal client = readPrincipal(buffer);
+        KerberosPrincipal server = readPrincipal(buffer);
+
+        int keyType = buffer.getShort() & 0xFFFF;
+        if (FILE_FORMAT_VERSION_3 == version) {
+            buffer.getShort(); // enctype repeated in version 3
+        }
+        byte[] sessionKey = readData(buffer);
+
+        Date authTime = readTime(buffer);
+        Date startTime = readTime(buffer);
+        Date endTime = readTime(buffer);
+        Date renewTill = readTime(buffer);
+
+        boolean isEncInSessionKey = 0 != buffer.get();
+        int ticketFlags = buffer.getInt();
+
+        int addressCount = buffer.getInt();
+        List<InetAddress> addresses = new ArrayList<>(addressCount);
+        for (int i = 0; i < addressCount; i++) {
+            int addressType = buffer.getShort() & 0xFFFF;
+            byte[] address = readData(buffer);
+            if (ADDRESS_TYPE_INET == addressType || ADDRESS_TYPE_INET6 == addressType) {
+                try {
+                    addresses.add(InetAddress.getByAddress(address));
+                } catch (UnknownHostException e) {
+                    throw new IOException("Malformed address in credential cache", e);
+                }
+            }
+        }
+
+        int authorizationDataCount = buffer.getInt();
+        for (int i = 0; i < authorizationDataCount; i++) {
+            buffer.getShort();
+            readData(buffer);
+        }
+
+        byte[] ticket = readData(buffer);
+        readData(buffer); // second ticket
+
+        if (null == server || server.getRealm().equals(CONFIGURATION_REALM) || isEncInSessionKey
+                || null == endTime || 0 == ticket.length) {
+            return null;
+        }
+
+        boolean[] flags = new boolean[32];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = 0 != (ticketFlags & (1 << (31 - i)));
+        }
+
+        return new KerberosTicket(ticket, client, server, sessionKey, keyType, flags,
+                authTime, startTime, endTime, renewTill,
+                addresses.isEmpty() ? null : addresses.toArray(new InetAddress[addresses.size()]));
+
+    }
+
+    private static KerberosPrincipal readPrincipal(ByteBuffer buffer) {
+
+        int nameType = buffer.getInt();
+        int componentCount = buffer.getInt();
+        String realm = new String(readData(buffer), StandardCharsets.UTF_8);
+
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < componentCount; i++) {
+            if (i > 0) name.append('/');
+            name.append(new String(readData(buffer), StandardCharsets.UTF_8));
+        }
+
+        if (CONFIGURATION_REALM.equals(realm) || name.length() == 0) {
+            return null;
+        }
+
+        return new KerberosPrincipal(name.append('@').append(realm).toString(), nameType);
+
+    }
+
+    private static byte[] readData(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    private static Date readTime(ByteBuffer buffer) {
+        long seconds = buffer.getInt() & 0xFFFFFFFFL;
+        return 0 == seconds ? null : new Date(seconds * 1000);
+    }
+
+    // writing
+
+    private static void writeCredential(DataOutputStream out, KerberosTicket ticket) throws IOException {
+
+        writePrincipal(out, ticket.getClient());
+        writePrincipal(out, ticket.getServer());
+
+        out.writeShort(ticket.getSessionKeyType());
+        writeData(out, ticket.getSessionKey().getEncoded());
+
+        writeTime(out, ticket.getAuthTime());
+        writeTime(out, null == ticket.getStartTime() ? ticket.getAuthTime() : ticket.getStartTime());
+        writeTime(out, ticket.getEndTime());
+        writeTime(out, ticket.getRenewTill());
+
+        out.writeByte(0); // is_skey
+
+        int ticketFlags = 0;
+        boolean[] flags = ticket.getFlags();
+        for (int i = 0; null != flags && i < flags.length && i < 32; i++) {
+            if (flags[i]) ticketFlags |= 1 << (31 - i);
+        }
+        out.writeInt(ticketFlags);
+
+        List<InetAddress> addresses = new ArrayList<>();
+        if (null != ticket.getClientAddresses()) {
+            Collections.addAll(addresses, ticket.getClientAddresses());
+        }
+        out.writeInt(addresses.size());
+        for (InetAddress address : addresses) {
+            byte[] rawAddress = address.getAddress();
+            out.writeShort(4 == rawAddress.length ? ADDRESS_TYPE_INET : ADDRESS_TYPE_INET6);
+            writeData(out, rawAddress);
+        }
+
+        out.writeInt(0); // authorization data is part of the ticket already
+
+        writeData(out, ticket.getEncoded());
+        writeData(out, new byte[0]); // second ticket
+
+    }
+
+    private static void writePrincipal(DataOutputStream out, KerberosPrincipal principal) throws IOException {
+
+        String name = principal.getName();
+        int realmSeparator = name.lastIndexOf('@');
+        String[] components = (realmSeparator < 0 ? name : name.substring(0, realmSeparator)).split("/");
+
+        out.writeInt(0 == principal.getNameType() ? NAME_TYPE_PRINCIPAL : principal.getNameType());
+        out.writeInt(components.length);
+        writeData(out, principal.getRealm().getBytes(StandardCharsets.UTF_8));
+        for (String component : components) {
+            writeData(out, component.getBytes(StandardCharsets.UTF_8));
+        }
+
+    }
+
+    private static void writeData(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static void writeTime(DataOutputStream out, Date time) throws IOException {
+        out.writeInt(null == time ? 0 : (int) (time.getTime() / 1000));
+    }
+
+}
@@ -0,0 +1,264 @@
+package client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Obtains the service tickets of a known set of targets before the first request to them.
+ *
+ * <p>
+ * Without prefetching, the first token created for every target pays a synchronous TGS exchange;
+ * right after a deployment this means a burst of simultaneous TGS requests. The prefetcher fetches
+ * all tickets up front with a bounded number of concurrent KDC exchanges and, once
+ * {@link #keepRefreshed(Collection)} is called, obtains new tickets shortly before the current ones
+ * expire, so that {@link KerberosInitiator} never has to fetch one on a request thread.
+ * </p>
+ *
+ * <pre>
+ * try (ServiceTicketPrefetcher prefetcher = new ServiceTicketPrefetcher(spnegoClient, 8)) {
+ *     ServiceTicketPrefetcher.Result result = prefetcher.keepRefreshed(targets);
+ *     ...
+ * }
+ * </pre>
+ */
+public final class ServiceTicketPrefetcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceTicketPrefetcher.class);
+
+    /** Tickets are renewed this long before they expire, ahead of the initiator's own margin. */
+    static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final SpnegoClient spnegoClient;
+
+    private final ExecutorService executor;
+
+    private final ConcurrentMap<String, ScheduledFuture<?>> scheduledRefreshes = new ConcurrentHashMap<>();
+
+    private volatile long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+
+    private volatile boolean closed;
+
+    /**
+     * @param spnegoClient client the tickets are obtained for
+     * @param parallelism maximum number of concurrent KDC exchanges
+     */
+    public ServiceTicketPrefetcher(SpnegoClient spnegoClient, int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive");
+        this.spnegoClient = spnegoClient;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new SpnegoClientExecutors.DaemonThreadFactory("spnego-ticket-prefetch"));
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    public void setRefreshAheadMillis(long refreshAheadMillis) {
+        if (refreshAheadMillis < 0) throw new IllegalArgumentException("refreshAheadMillis must not be negative");
+        this.refreshAheadMillis = refreshAheadMillis;
+    }
+
+    /**
+     * Obtains the service tickets of all targets and waits until every exchange has completed.
+     *
+     * @param targets SPNs (service/host or service@host) or http(s) URLs
+     * @return end times of the obtained tickets and failures per target
+     */
+    public Result prefetch(Collection<String> targets) {
+        return fetch(toSPNs(targets));
+    }
+
+    /**
+     * Like {@link #prefetch(Collection)}, then keeps the tickets of all targets refreshed ahead
+     * of expiry until {@link #close()} is called. Failed targets are retried in the background.
+     */
+    public Result keepRefreshed(Collection<String> targets) {
+        Result result = prefetch(targets);
+        for (Map.Entry<String, Date> ticket : result.getSucceeded().entrySet()) {
+            scheduleRefresh(ticket.getKey(), refreshDelay(ticket.getValue()));
+        }
+        for (String spn : result.getFailed().keySet()) {
+            scheduleRefresh(spn, RETRY_DELAY_MILLIS);
+        }
+        return result;
+    }
+
+    /**
+     * Stops refreshing tickets. Tickets already obtained stay cached in the client.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ScheduledFuture<?> scheduledRefresh : scheduledRefreshes.values()) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefreshes.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Converts a URL to the HTTP service principal of its host, SPNs are returned as is.
+     */
+    static String toSPN(String target) {
+        String trimmed = target.trim();
+        if (trimmed.regionMatches(true, 0, "http://", 0, 7) || trimmed.regionMatches(true, 0, "https://", 0, 8)) {
+            try {
+                return "HTTP/" + new URL(trimmed).getHost();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid target URL " + trimmed, e);
+            }
+        }
+        return trimmed;
+    }
+
+    private static Set<String> toSPNs(Collection<String> targets) {
+        Set<String> spns = new LinkedHashSet<>();
+        for (String target : targets) {
+            if (null != target && !target.trim().isEmpty()) {
+                spns.add(toSPN(target));
+            }
+        }
+        return spns;
+    }
+
+    private Result fetch(Collection<String> spns) {
+
+        final KerberosInitiator initiator = spnegoClient.getKerberosInitiator();
+
+        Map<String, Future<Date>> futures = new LinkedHashMap<>();
+        for (final String spn : spns) {
+            futures.put(spn, executor.submit(new Callable<Date>() {
+                @Override
+                public Date call() throws Exception {
+                    return initiator.prefetch(spn);
+                }
+            }));
+        }
+
+        Map<String, Date> succeeded = new LinkedHashMap<>();
+        Map<String, Throwable> failed = new LinkedHashMap<>();
+
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<Date>> future : futures.entrySet()) {
+            for (;;) {
+                try {
+                    succeeded.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    failed.put(future.getKey(), e.getCause());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                break;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        for (Map.Entry<String, Throwable> failure : failed.entrySet()) {
+            LOGGER.warn("Failed to obtain service ticket for " + failure.getKey(), failure.getValue());
+        }
+
+        return new Result(succeeded, failed);
+
+    }
+
+    private long refreshDelay(Date endTime) {
+        // service tickets never outlive the TGT, so close to its end time they can be short
+        return Math.max(endTime.getTime() - refreshAheadMillis - System.currentTimeMillis(), RETRY_DELAY_MILLIS);
+    }
+
+    private void scheduleRefresh(final String spn, long delayMillis) {
+
+        if (closed) return;
+
+        ScheduledFuture<?> scheduledRefresh = SpnegoClientExecutors.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) return;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh(spn);
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+
+        // one refresh chain per SPN, also when keepRefreshed is called again for it
+        ScheduledFuture<?> replaced = scheduledRefreshes.put(spn, scheduledRefresh);
+        if (null != replaced) replaced.cancel(false);
+        if (closed) scheduledRefresh.cancel(false);
+
+    }
+
+    private void refresh(String spn) {
+        long delayMillis;
+        try {
+            delayMillis = refreshDelay(spnegoClient.getKerberosInitiator().renew(spn));
+        } catch (Exception e) {
+            LOGGER.warn("Failed to renew service ticket for " + spn, e);
+            delayMillis = RETRY_DELAY_MILLIS;
+        }
+        scheduleRefresh(spn, delayMillis);
+    }
+
+    /**
+     * Outcome of a prefetch, per SPN.
+     */
+    public static final class Result {
+
+        private final Map<String, Date> succeeded;
+        private final Map<String, Throwable> failed;
+
+        Result(Map<String, Date> succeeded, Map<String, Throwable> failed) {
+            this.succeeded = Collections.unmodifiableMap(succeeded);
+            this.failed = Collections.unmodifiableMap(failed);
+        }
+
+        /**
+         * @return end time of the service ticket per SPN
+         */
+        public Map<String, Date> getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * @return failure per SPN
+         */
+        public Map<String, Throwable> getFailed() {
+            return failed;
+        }
+
+        public boolean isSuccessful() {
+            return failed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Result{succeeded=" + succeeded.keySet() + ", failed=" + failed.keySet() + "}";
+        }
+
+    }
+
+}
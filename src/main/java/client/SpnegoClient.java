@@ -18,17 +18,22 @@
 
 package client;
 
+import kdc.KdcClient;
+import org.apache.kerby.kerberos.kerb.KrbException;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
 import org.ietf.jgss.GSSException;
 import org.ietf.jgss.GSSName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spnego.ConcurrentTtlCache;
 import spnego.JreVendor;
-import spnego.LRUCache;
 import spnego.SpnegoProvider;
 import sun.Krb5LoginContext;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.RefreshFailedException;
 import javax.security.auth.Subject;
 import javax.security.auth.kerberos.KerberosKey;
 import javax.security.auth.kerberos.KerberosPrincipal;
@@ -36,19 +41,33 @@ import javax.security.auth.kerberos.KerberosTicket;
 import javax.security.auth.kerberos.KeyTab;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.AbstractMap;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * This Class may be used by custom clients as a convenience when connecting 
@@ -75,18 +94,80 @@ public final class SpnegoClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SpnegoClient.class);
 
+    public static final double DEFAULT_TGT_REFRESH_RATIO = 0.8;
+
+    private static final long REFRESH_RETRY_MILLIS = 60 * 1000L;
+
+    /** Lower bound of any refresh delay, so that failures close to the TGT end time do not spin. */
+    private static final long MIN_REFRESH_DELAY_MILLIS = 1000L;
+
     private final AtomicReference<SubjectTgtPair> subjectTgtPairReference = new AtomicReference<>();
 
+    /** Supplies the login of this client, null if {@link #subjectSupplier} is used instead. */
+    private final Callable<LoginContext> loginContextSupplier;
+
     private final Callable<Subject> subjectSupplier;
 
     private final Lock authenticateLock = new ReentrantLock();
 
-    private final static LRUCache<AbstractMap.SimpleEntry<String,String>, SpnegoClient> SPNEGO_CLIENT_CACHE = new LRUCache<>(1024);
+    private volatile double tgtRefreshRatio = DEFAULT_TGT_REFRESH_RATIO;
+
+    private final AuthenticatorTimestampSequencer authenticatorTimestampSequencer = AuthenticatorTimestampSequencer.forJgss();
+
+    private final AtomicReference<SubjectCredentialPair> initiateCredentialReference = new AtomicReference<>();
+
+    private final AtomicReference<SubjectCredentialPair> acceptCredentialReference = new AtomicReference<>();
+
+    private volatile KerberosInitiator kerberosInitiator;
+
+    private volatile ConstrainedDelegation constrainedDelegation;
+
+    private volatile PersistentCredentialCache credentialCache;
+
+    private volatile Set<KerberosTicket> persistedTickets;
+
+    private volatile KdcClient kdcClient;
+
+    private final CredentialLifecycle credentialLifecycle = new CredentialLifecycle();
+
+    private volatile Executor asyncExecutor = SpnegoClientExecutors.ASYNC;
+
+    /** Login started by {@link #getSubjectAsync()} which later callers join. */
+    private final AtomicReference<CompletableFuture<Subject>> pendingLogin = new AtomicReference<>();
+
+    private final static int SPNEGO_CLIENT_CACHE_SIZE = 1024;
+
+    private final static long SPNEGO_CLIENT_CACHE_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * Username and password clients keyed by {@link #hashCredentials(String, String)},
+     * expiring together with their TGT.
+     */
+    private final static ConcurrentTtlCache<ByteBuffer, SpnegoClient> SPNEGO_CLIENT_CACHE = new ConcurrentTtlCache<>(
+            SPNEGO_CLIENT_CACHE_SIZE, Long.MAX_VALUE, SPNEGO_CLIENT_CACHE_IDLE_MILLIS,
+            new ConcurrentTtlCache.Expiry<SpnegoClient>() {
+                @Override
+                public long getExpirationTime(SpnegoClient spnegoClient) {
+                    return spnegoClient.getTgtEndTime();
+                }
+            }, null);
+
+    /** Per process key so that cache keys cannot be used to recover passwords. */
+    private final static byte[] CREDENTIALS_HASH_KEY = newCredentialsHashKey();
+
+    private final static SpnegoClientRegistry SPNEGO_CLIENT_REGISTRY =
+            new SpnegoClientRegistry(SpnegoClientRegistry.DEFAULT_IDLE_TIMEOUT_MILLIS);
 
     public static void resetCache() {
-        synchronized (SPNEGO_CLIENT_CACHE) {
-            SPNEGO_CLIENT_CACHE.clear();
-        }
+        SPNEGO_CLIENT_CACHE.invalidateAll();
+        SPNEGO_CLIENT_REGISTRY.clear();
+    }
+
+    /**
+     * Returns statistics of the username and password client cache.
+     */
+    public static ConcurrentTtlCache.Stats getCacheStats() {
+        return SPNEGO_CLIENT_CACHE.stats();
     }
 
     /**
@@ -95,28 +176,63 @@ public final class SpnegoClient {
      * @param loginContextSupplier loginContextSupplier
      */
     protected SpnegoClient(final Callable<LoginContext> loginContextSupplier) {
+        this.loginContextSupplier = loginContextSupplier;
+        this.subjectSupplier = null;
+    }
 
-        subjectSupplier = new Callable<Subject>() {
-            @Override
-            public Subject call() throws Exception {
-
-                LoginContext loginContext = loginContextSupplier.call();
-
-                Subject subject = loginContext.getSubject();
+    /**
+     * Creates an instance which obtains its Subject from the passed-in supplier
+     */
+    private SpnegoClient(final Callable<Subject> subjectSupplier, final KdcClient kdcClient) {
+        this.loginContextSupplier = null;
+        this.subjectSupplier = subjectSupplier;
+        this.kdcClient = kdcClient;
+    }
 
-                if (null == subject) try {
-                    loginContext.login();
-                    subject = loginContext.getSubject();
-                } catch (LoginException e) {
-                    LOGGER.error(e.getMessage(), e);
-                    throw new RuntimeException(e);
-                }
+    /**
+     * Sets the fraction of the TGT lifetime after which the ticket is refreshed in background.
+     *
+     * <p>
+     * Callers keep using the current Subject while the refresh is in flight; they only block
+     * when the TGT has actually expired.
+     * </p>
+     *
+     * @param tgtRefreshRatio value in (0, 1], defaults to {@value #DEFAULT_TGT_REFRESH_RATIO}
+     */
+    public void setTgtRefreshRatio(double tgtRefreshRatio) {
+        if (!(tgtRefreshRatio > 0 && tgtRefreshRatio <= 1))
+            throw new IllegalArgumentException("TGT refresh ratio must be in (0, 1]: " + tgtRefreshRatio);
+        this.tgtRefreshRatio = tgtRefreshRatio;
+    }
 
-                return subject;
+    /**
+     * Sets the number of service tickets kept in the Subject, the least recently used ones are
+     * removed beyond it. Tokens created by the {@link KerberosInitiator} are not affected.
+     *
+     * @param maxServiceTickets positive number, defaults to {@value CredentialLifecycle#DEFAULT_MAX_SERVICE_TICKETS}
+     */
+    public void setMaxServiceTickets(int maxServiceTickets) {
+        credentialLifecycle.setMaxServiceTickets(maxServiceTickets);
+    }
 
-            }
-        };
+    /**
+     * Returns the credentials held by the current Subject and the counts of retired Subjects
+     * and evicted service tickets.
+     */
+    public CredentialStats getCredentialStats() {
+        SubjectTgtPair subjectTgtPair = subjectTgtPairReference.get();
+        return credentialLifecycle.stats(null == subjectTgtPair ? null : subjectTgtPair.subject);
+    }
 
+    /**
+     * Records the use of the service ticket for the given service and bounds the service
+     * tickets of the Subject if a ticket has been added to it since the last call.
+     *
+     * @param serviceName service/host or service@host, optionally followed by @REALM
+     */
+    void serviceTicketUsed(String serviceName, Subject subject) {
+        credentialLifecycle.touch(serviceName);
+        credentialLifecycle.trimIfChanged(subject);
     }
 
     public Subject getSubject() {
@@ -131,31 +247,329 @@ public final class SpnegoClient {
                 subjectTgtPair = subjectTgtPairReference.get();
 
                 if (null == subjectTgtPair || subjectTgtPair.isExpired()) {
+                    subjectTgtPair = login();
+                }
+
+            } finally {
+                authenticateLock.unlock();
+            }
+
+        }
+
+        return subjectTgtPair.subject;
+
+    }
+
+    /**
+     * Returns the Subject without blocking the calling thread. If a login is required it is
+     * performed on the executor of this client, concurrent callers share a single login.
+     *
+     * @see #withExecutor(Executor)
+     */
+    public CompletableFuture<Subject> getSubjectAsync() {
+
+        SubjectTgtPair subjectTgtPair = subjectTgtPairReference.get();
+        if (null != subjectTgtPair && !subjectTgtPair.isExpired()) {
+            return CompletableFuture.completedFuture(subjectTgtPair.subject);
+        }
 
-                    Subject subject = subjectSupplier.call();
+        for (;;) {
 
-                    for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
-                        if (ticket.getServer().getName().startsWith("krbtgt")) {
-                            subjectTgtPairReference.set(new SubjectTgtPair(ticket, subject));
-                            break;
+            CompletableFuture<Subject> pending = pendingLogin.get();
+            if (null != pending) return SpnegoClientExecutors.copy(pending);
+
+            final CompletableFuture<Subject> login = new CompletableFuture<>();
+            if (!pendingLogin.compareAndSet(null, login)) continue;
+
+            try {
+                asyncExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            login.complete(getSubject());
+                        } catch (Throwable e) {
+                            login.completeExceptionally(e);
+                        } finally {
+                            pendingLogin.compareAndSet(login, null);
                         }
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                pendingLogin.compareAndSet(login, null);
+                login.completeExceptionally(e);
+            }
+
+            return SpnegoClientExecutors.copy(login);
+
+        }
+
+    }
+
+    /**
+     * Like {@link #getSubjectAsync()}, completed with a {@link java.util.concurrent.TimeoutException}
+     * if the Subject is not available within the given time.
+     */
+    public CompletableFuture<Subject> getSubjectAsync(long timeout, TimeUnit unit) {
+        return SpnegoClientExecutors.withDeadline(getSubjectAsync(), timeout, unit);
+    }
+
+    /**
+     * Performs a full login and schedules the refresh of the obtained TGT.
+     * The very first login is served from the credential cache if it holds a valid TGT.
+     * Must be called with {@link #authenticateLock} held.
+     */
+    private SubjectTgtPair login() {
+
+        SubjectTgtPair subjectTgtPair = null == subjectTgtPairReference.get() ? loadCredentialCache() : null;
+
+        if (null == subjectTgtPair) try {
 
-                    subjectTgtPair = subjectTgtPairReference.get();
+            LoginContext loginContext = null;
+            Subject subject;
 
+            if (null != loginContextSupplier) {
+                loginContext = loginContextSupplier.call();
+                subject = loginContext.getSubject();
+                if (null == subject) try {
+                    loginContext.login();
+                    subject = loginContext.getSubject();
+                } catch (LoginException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    throw new RuntimeException(e);
                 }
+            } else {
+                subject = subjectSupplier.call();
+            }
 
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                authenticateLock.unlock();
+            for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+                if (ticket.getServer().getName().startsWith("krbtgt")) {
+                    subjectTgtPair = new SubjectTgtPair(ticket, subject, loginContext, tgtRefreshRatio);
+                    break;
+                }
             }
 
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
 
-        return subjectTgtPair.subject;
+        if (null != subjectTgtPair) {
+            replace(subjectTgtPair);
+            scheduleRefresh(subjectTgtPair, refreshDelay(subjectTgtPair));
+            persistCredentials();
+        }
+
+        return subjectTgtPairReference.get();
+
+    }
+
+    /**
+     * Sets the credential cache this client starts from and keeps its tickets in,
+     * so that a restarted process needs no KDC round trip while the tickets are valid.
+     *
+     * @param credentialCache cache file of this client identity
+     * @return this client
+     */
+    public SpnegoClient withCredentialCache(PersistentCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+        return this;
+    }
+
+    /**
+     * Sends TGT renewals and service ticket requests through the given client instead of JGSS.
+     * The initial login is still performed by the login module of this client.
+     *
+     * @param kdcClient client of the KDCs of the realm
+     * @return this client
+     */
+    public SpnegoClient withKdcClient(KdcClient kdcClient) {
+        this.kdcClient = kdcClient;
+        return this;
+    }
+
+    /**
+     * Sets the executor the asynchronous API runs blocking work on, a shared pool of daemon
+     * threads by default.
+     *
+     * @param executor executor for logins and token creation
+     * @return this client
+     */
+    public SpnegoClient withExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    KdcClient getKdcClient() {
+        return kdcClient;
+    }
+
+    /**
+     * Returns the TGT of the current Subject, logging in if required.
+     */
+    KerberosTicket getTgt() {
+        getSubject();
+        return subjectTgtPairReference.get().tgt;
+    }
+
+    /**
+     * Writes the tickets of the current Subject to the credential cache, if any is set and
+     * the tickets changed since the last write.
+     */
+    public void persistCredentials() {
+
+        PersistentCredentialCache credentialCache = this.credentialCache;
+        SubjectTgtPair subjectTgtPair = subjectTgtPairReference.get();
+
+        if (null == credentialCache || null == subjectTgtPair) return;
+
+        Set<KerberosTicket> tickets = new HashSet<>(subjectTgtPair.subject.getPrivateCredentials(KerberosTicket.class));
+        if (tickets.equals(persistedTickets)) return;
+
+        try {
+            credentialCache.store(subjectTgtPair.subject);
+            persistedTickets = tickets;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write credential cache " + credentialCache.getPath(), e);
+        }
+
+    }
+
+    private SubjectTgtPair loadCredentialCache() {
+
+        PersistentCredentialCache credentialCache = this.credentialCache;
+        if (null == credentialCache) return null;
+
+        List<KerberosTicket> tickets = credentialCache.load();
+
+        for (KerberosTicket ticket : tickets) {
+            if (PersistentCredentialCache.isTgt(ticket)) {
+                Subject subject = new Subject();
+                subject.getPrincipals().add(ticket.getClient());
+                subject.getPrivateCredentials().addAll(tickets);
+                LOGGER.debug("Using TGT of " + ticket.getClient() + " from " + credentialCache.getPath());
+                return new SubjectTgtPair(ticket, subject, null, tgtRefreshRatio);
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Makes the given pair the current one and schedules the retirement of the replaced one.
+     * Must be called with {@link #authenticateLock} held.
+     */
+    private void replace(SubjectTgtPair subjectTgtPair) {
+        final SubjectTgtPair replaced = subjectTgtPairReference.getAndSet(subjectTgtPair);
+        if (null == replaced || replaced.subject == subjectTgtPair.subject) return;
+        credentialLifecycle.retirementScheduled();
+        SpnegoClientExecutors.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                SubjectTgtPair current = subjectTgtPairReference.get();
+                credentialLifecycle.retire(replaced.subject, replaced.loginContext,
+                        null == current ? null : current.subject, null == current ? null : current.loginContext);
+            }
+        }, CredentialLifecycle.RETIREMENT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the delay until the refresh of the TGT of the given pair. A login may return a TGT
+     * which is already due, e.g. one read from a ticket cache beyond its refresh ratio which
+     * cannot be renewed; the refresh would only log in again and obtain the same TGT, so it is
+     * retried with {@link #REFRESH_RETRY_MILLIS} delay instead of right away.
+     */
+    private static long refreshDelay(SubjectTgtPair subjectTgtPair) {
+        return Math.max(subjectTgtPair.refreshTime - System.currentTimeMillis(), REFRESH_RETRY_MILLIS);
+    }
+
+    private void scheduleRefresh(SubjectTgtPair subjectTgtPair, long delayMillis) {
+        // the refresh waits for the KDC, which the few scheduler threads must not
+        SpnegoClientExecutors.SCHEDULER.schedule(new AsyncDispatchTask(new RefreshTask(this, subjectTgtPair)),
+                Math.max(delayMillis, MIN_REFRESH_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the given Subject with one holding a fresh TGT unless it has been replaced already.
+     *
+     * <p>
+     * A renewable TGT is renewed with the KDC; otherwise a full login is performed. The TGT is
+     * renewed on a copy so that threads still using the current Subject never see it change.
+     * </p>
+     */
+    private void refresh(SubjectTgtPair subjectTgtPair) {
+
+        authenticateLock.lock();
+        try {
+
+            if (subjectTgtPair != subjectTgtPairReference.get()) return;
+
+            SubjectTgtPair renewed = subjectTgtPair.renew(tgtRefreshRatio, kdcClient);
+
+            if (null == renewed) {
+                login();
+            } else {
+                replace(renewed);
+                scheduleRefresh(renewed, refreshDelay(renewed));
+                persistCredentials();
+            }
+
+        } catch (Exception e) {
+            LOGGER.warn("Failed to refresh Kerberos TGT, will retry", e);
+            long remaining = subjectTgtPair.endTime - System.currentTimeMillis();
+            if (remaining > 0) {
+                scheduleRefresh(subjectTgtPair, Math.min(REFRESH_RETRY_MILLIS, remaining / 2));
+            }
+        } finally {
+            authenticateLock.unlock();
+        }
+
+    }
+
+    /**
+     * Holds the client weakly so that a scheduled refresh does not keep an abandoned client alive.
+     */
+    private static class RefreshTask implements Runnable {
+
+        private final WeakReference<SpnegoClient> spnegoClientReference;
+        private final SubjectTgtPair subjectTgtPair;
+
+        private RefreshTask(SpnegoClient spnegoClient, SubjectTgtPair subjectTgtPair) {
+            this.spnegoClientReference = new WeakReference<>(spnegoClient);
+            this.subjectTgtPair = subjectTgtPair;
+        }
+
+        @Override
+        public void run() {
+            SpnegoClient spnegoClient = spnegoClientReference.get();
+            if (null != spnegoClient) {
+                spnegoClient.refresh(subjectTgtPair);
+            }
+        }
+
+    }
+
+    /**
+     * Hands a task over from the scheduler to the async executor. Static, so that the scheduler
+     * queue does not reference the client and abandoned clients can still be collected.
+     */
+    private static class AsyncDispatchTask implements Runnable {
+
+        private final Runnable task;
+
+        private AsyncDispatchTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            SpnegoClientExecutors.ASYNC.execute(task);
+        }
 
     }
 
@@ -179,27 +593,233 @@ public final class SpnegoClient {
 
     }
 
+    /**
+     * Work-around to GSSContext/AD timestamp vs sequence field replay bug: makes sure that no two
+     * authenticators created by this client share the same wall clock tick. Holds the tick until
+     * {@link #releaseAuthenticatorTimestamp()}, which must follow once JGSS has built the token.
+     */
+    void acquireAuthenticatorTimestamp() {
+        authenticatorTimestampSequencer.acquireExclusive();
+    }
+
+    /**
+     * Makes sure the Subject holds a service ticket for the given target, so that JGSS builds the
+     * next token without a KDC exchange and the authenticator timestamp is only held for local
+     * work. If there is none, a throwaway token is built for the target without holding the
+     * timestamp; it is never sent, so it cannot be taken for a replay.
+     */
+    void obtainServiceTicket(Subject subject, GSSName targetName) throws GSSException, PrivilegedActionException {
+
+        if (hasServiceTicket(subject, targetName.toString())) return;
+
+        final GSSContext context = getGSSContext(targetName);
+        try {
+            Subject.doAs(subject, new PrivilegedExceptionAction<byte[]>() {
+                @Override
+                public byte[] run() throws Exception {
+                    return context.initSecContext(new byte[0], 0, 0);
+                }
+            });
+        } finally {
+            context.dispose();
+        }
+
+    }
+
+    /**
+     * @param targetName service@host or service/host@REALM
+     */
+    static boolean hasServiceTicket(Subject subject, String targetName) {
+        String prefix = CredentialLifecycle.toKey(targetName) + '@';
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getServer().getName().startsWith(prefix) && ticket.isCurrent()) return true;
+        }
+        return false;
+    }
+
+    void releaseAuthenticatorTimestamp() {
+        authenticatorTimestampSequencer.release();
+    }
+
+    /**
+     * Returns the end time of the current TGT, or {@link Long#MIN_VALUE} if the client has not logged in yet.
+     */
+    long getTgtEndTime() {
+        SubjectTgtPair subjectTgtPair = subjectTgtPairReference.get();
+        return null == subjectTgtPair ? Long.MIN_VALUE : subjectTgtPair.endTime;
+    }
+
+    /**
+     * Credentials held by a client, see {@link #getCredentialStats()}.
+     */
+    public static final class CredentialStats {
+
+        private final int serviceTicketCount;
+        private final int keyCount;
+        private final long credentialBytes;
+        private final int pendingRetirementCount;
+        private final long retiredSubjectCount;
+        private final long destroyedCredentialCount;
+        private final long evictedServiceTicketCount;
+
+        CredentialStats(int serviceTicketCount, int keyCount, long credentialBytes, int pendingRetirementCount,
+                        long retiredSubjectCount, long destroyedCredentialCount, long evictedServiceTicketCount) {
+            this.serviceTicketCount = serviceTicketCount;
+            this.keyCount = keyCount;
+            this.credentialBytes = credentialBytes;
+            this.pendingRetirementCount = pendingRetirementCount;
+            this.retiredSubjectCount = retiredSubjectCount;
+            this.destroyedCredentialCount = destroyedCredentialCount;
+            this.evictedServiceTicketCount = evictedServiceTicketCount;
+        }
+
+        public int getServiceTicketCount() {
+            return serviceTicketCount;
+        }
+
+        public int getKeyCount() {
+            return keyCount;
+        }
+
+        /**
+         * @return encoded size of the tickets, session keys and keys of the current Subject
+         */
+        public long getCredentialBytes() {
+            return credentialBytes;
+        }
+
+        /**
+         * @return replaced Subjects still within their grace period
+         */
+        public int getPendingRetirementCount() {
+            return pendingRetirementCount;
+        }
+
+        public long getRetiredSubjectCount() {
+            return retiredSubjectCount;
+        }
+
+        public long getDestroyedCredentialCount() {
+            return destroyedCredentialCount;
+        }
+
+        public long getEvictedServiceTicketCount() {
+            return evictedServiceTicketCount;
+        }
+
+        @Override
+        public String toString() {
+            return "CredentialStats{serviceTicketCount=" + serviceTicketCount + ", keyCount=" + keyCount
+                    + ", credentialBytes=" + credentialBytes + ", pendingRetirementCount=" + pendingRetirementCount
+                    + ", retiredSubjectCount=" + retiredSubjectCount + ", destroyedCredentialCount=" + destroyedCredentialCount
+                    + ", evictedServiceTicketCount=" + evictedServiceTicketCount + "}";
+        }
+
+    }
+
+    /**
+     * Immutable pair of a Subject and its TGT with the ticket times resolved once,
+     * so that checking for expiration needs neither locking nor allocation.
+     */
     private static class SubjectTgtPair {
 
+        /** Tickets are not renewed if the renewed ticket would be valid for less than this. */
+        private static final long MIN_RENEWED_LIFETIME_MILLIS = 60 * 1000L;
+
         private final KerberosTicket tgt;
         private final Subject subject;
+        /** Login the Subject comes from, shared by the renewed copies of the Subject; may be null. */
+        private final LoginContext loginContext;
+        private final long endTime;
+        private final long refreshTime;
 
-        private SubjectTgtPair(KerberosTicket tgt, Subject subject) {
+        private SubjectTgtPair(KerberosTicket tgt, Subject subject, LoginContext loginContext, double refreshRatio) {
             this.tgt = tgt;
             this.subject = subject;
+            this.loginContext = loginContext;
+            this.endTime = getTime(tgt.getEndTime(), Long.MIN_VALUE);
+            long startTime = getTime(null == tgt.getStartTime() ? tgt.getAuthTime() : tgt.getStartTime(), System.currentTimeMillis());
+            this.refreshTime = startTime + (long) ((endTime - startTime) * refreshRatio);
+        }
+
+        private static long getTime(Date date, long defaultValue) {
+            return null == date ? defaultValue : date.getTime();
         }
 
         private boolean isExpired() {
+            return System.currentTimeMillis() >= endTime;
+        }
+
+        /**
+         * Renews the TGT with the KDC and returns a new pair holding a copy of the Subject with the
+         * renewed ticket, or null if the ticket cannot be renewed and a full login is required.
+         *
+         * @param kdcClient client to renew the ticket with, JGSS is used if null
+         */
+        private SubjectTgtPair renew(double refreshRatio, KdcClient kdcClient) throws RefreshFailedException, KrbException {
+
+            Date renewTill = tgt.getRenewTill();
+            if (!tgt.isRenewable() || null == renewTill ||
+                    renewTill.getTime() - System.currentTimeMillis() < MIN_RENEWED_LIFETIME_MILLIS) {
+                return null;
+            }
+
+            KerberosTicket renewedTgt;
+            if (null != kdcClient) {
+                renewedTgt = kdcClient.renew(tgt);
+            } else {
+                renewedTgt = new KerberosTicket(
+                        tgt.getEncoded(), tgt.getClient(), tgt.getServer(),
+                        tgt.getSessionKey().getEncoded(), tgt.getSessionKeyType(), tgt.getFlags(),
+                        tgt.getAuthTime(), tgt.getStartTime(), tgt.getEndTime(), renewTill, tgt.getClientAddresses());
+                renewedTgt.refresh();
+            }
+
+            Set<Object> privateCredentials = new HashSet<>(subject.getPrivateCredentials());
+            privateCredentials.remove(tgt);
+            privateCredentials.add(renewedTgt);
+
+            Subject renewedSubject = new Subject(false,
+                    subject.getPrincipals(), subject.getPublicCredentials(), privateCredentials);
+
+            return new SubjectTgtPair(renewedTgt, renewedSubject, loginContext, refreshRatio);
+
+        }
+
+    }
+
+    private static class SubjectCredentialPair {
+
+        /** Credentials are recreated this long before they actually expire. */
+        private static final long EXPIRATION_MARGIN_MILLIS = 60 * 1000L;
+
+        private final Subject subject;
+        private final GSSCredential credential;
+        private final long validUntil;
+
+        private SubjectCredentialPair(Subject subject, GSSCredential credential) {
+            this.subject = subject;
+            this.credential = credential;
+            this.validUntil = getValidUntil(credential);
+        }
+
+        private static long getValidUntil(GSSCredential credential) {
             try {
-                synchronized (tgt) {
-                    return tgt.getEndTime().before(new Date());
+                int remainingLifetime = credential.getRemainingLifetime();
+                if (GSSCredential.INDEFINITE_LIFETIME == remainingLifetime) {
+                    return Long.MAX_VALUE;
                 }
-            } catch (Exception e) {
-                LOGGER.error("Failed to get Kerberos ticket end time", e);
-                return true;
+                return System.currentTimeMillis() + remainingLifetime * 1000L - EXPIRATION_MARGIN_MILLIS;
+            } catch (GSSException e) {
+                LOGGER.error("Failed to get GSS credential lifetime", e);
+                return Long.MIN_VALUE;
             }
         }
 
+        private boolean isValidFor(Subject subject) {
+            return this.subject == subject && System.currentTimeMillis() < validUntil;
+        }
+
     }
 
     // TODO: add factory methods with implicit principal name
@@ -224,19 +844,42 @@ public final class SpnegoClient {
 
         if (!useCache) return loginWithUsernamePasswordImpl(username, password);
 
-        AbstractMap.SimpleEntry<String, String> entry = new AbstractMap.SimpleEntry<>(username, password);
+        try {
+            return SPNEGO_CLIENT_CACHE.get(hashCredentials(username, password), new ConcurrentTtlCache.Loader<ByteBuffer, SpnegoClient>() {
+                @Override
+                public SpnegoClient load(ByteBuffer key) {
+                    SpnegoClient spnegoClient = loginWithUsernamePasswordImpl(username, password);
+                    // login now so that wrong credentials are never cached
+                    spnegoClient.getSubject();
+                    return spnegoClient;
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
-        SpnegoClient spnegoClient;
+    /**
+     * Uses nextBytes rather than generateSeed, which may block class initialization waiting for
+     * entropy.
+     */
+    private static byte[] newCredentialsHashKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
 
-        synchronized (SPNEGO_CLIENT_CACHE) {
-            spnegoClient = SPNEGO_CLIENT_CACHE.get(entry);
-            if (null == spnegoClient) {
-                spnegoClient = loginWithUsernamePasswordImpl(username, password);
-                SPNEGO_CLIENT_CACHE.put(entry, spnegoClient);
-            }
+    private static ByteBuffer hashCredentials(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(CREDENTIALS_HASH_KEY, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return ByteBuffer.wrap(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
         }
-
-        return spnegoClient;
     }
 
     private static SpnegoClient loginWithUsernamePasswordImpl(final String username, final String password) {
@@ -255,6 +898,35 @@ public final class SpnegoClient {
      * @param keyTabLocation keyTabLocation
      */
     public static SpnegoClient loginWithKeyTab(final String principal, final String keyTabLocation) {
+        return loginWithKeyTab(principal, keyTabLocation, false);
+    }
+
+    /**
+     * Creates an instance where authentication is done using keytab file
+     *
+     * <p>
+     * With {@code useCache} all callers share one instance per principal and keytab,
+     * so the keytab is read and the KDC is contacted only once for all of them.
+     * </p>
+     *
+     * @param principal principal
+     * @param keyTabLocation keyTabLocation
+     * @param useCache return the shared instance for this principal and keytab
+     */
+    public static SpnegoClient loginWithKeyTab(final String principal, final String keyTabLocation, final boolean useCache) {
+
+        if (!useCache) return loginWithKeyTabImpl(principal, keyTabLocation);
+
+        return SPNEGO_CLIENT_REGISTRY.get(SpnegoClientRegistry.LoginType.KEYTAB, principal, keyTabLocation,
+                new Callable<SpnegoClient>() {
+                    @Override
+                    public SpnegoClient call() throws Exception {
+                        return loginWithKeyTabImpl(principal, keyTabLocation);
+                    }
+                });
+    }
+
+    private static SpnegoClient loginWithKeyTabImpl(final String principal, final String keyTabLocation) {
         return new SpnegoClient(new Callable<LoginContext>() {
             @Override
             public LoginContext call() throws Exception {
@@ -263,12 +935,63 @@ public final class SpnegoClient {
         });
     }
 
+    /**
+     * Creates an instance where authentication is done using keytab file and all KDC exchanges,
+     * including the initial login, go through the given client instead of JGSS
+     *
+     * @param principal principal
+     * @param keyTabLocation keyTabLocation
+     * @param kdcClient client of the KDCs of the realm
+     */
+    public static SpnegoClient loginWithKeyTab(final String principal, final String keyTabLocation, final KdcClient kdcClient) {
+        return new SpnegoClient(new Callable<Subject>() {
+            @Override
+            public Subject call() throws Exception {
+
+                KerberosPrincipal kerberosPrincipal = new KerberosPrincipal(principal);
+                KeyTab keyTab = KeyTab.getInstance(kerberosPrincipal, new File(keyTabLocation));
+
+                KerberosTicket tgt = kdcClient.requestTgt(kerberosPrincipal, keyTab.getKeys(kerberosPrincipal));
+
+                Subject subject = new Subject();
+                subject.getPrincipals().add(tgt.getClient());
+                subject.getPrivateCredentials().add(tgt);
+                subject.getPrivateCredentials().add(keyTab);
+                return subject;
+
+            }
+        }, kdcClient);
+    }
+
     /**
      * Creates an instance where authentication is done using ticket cache
      *
      * @param principal principal
      */
     public static SpnegoClient loginWithTicketCache(final String principal) {
+        return loginWithTicketCache(principal, false);
+    }
+
+    /**
+     * Creates an instance where authentication is done using ticket cache
+     *
+     * @param principal principal
+     * @param useCache return the shared instance for this principal
+     */
+    public static SpnegoClient loginWithTicketCache(final String principal, final boolean useCache) {
+
+        if (!useCache) return loginWithTicketCacheImpl(principal);
+
+        return SPNEGO_CLIENT_REGISTRY.get(SpnegoClientRegistry.LoginType.TICKET_CACHE, principal, null,
+                new Callable<SpnegoClient>() {
+                    @Override
+                    public SpnegoClient call() throws Exception {
+                        return loginWithTicketCacheImpl(principal);
+                    }
+                });
+    }
+
+    private static SpnegoClient loginWithTicketCacheImpl(final String principal) {
         return new SpnegoClient(new Callable<LoginContext>() {
             @Override
             public LoginContext call() throws Exception {
@@ -277,6 +1000,40 @@ public final class SpnegoClient {
         });
     }
 
+    /**
+     * Returns the initiator of this client which creates tokens from cached service tickets
+     * without a JGSS context per request.
+     */
+    public KerberosInitiator getKerberosInitiator() {
+        KerberosInitiator initiator = kerberosInitiator;
+        if (null == initiator) {
+            synchronized (this) {
+                initiator = kerberosInitiator;
+                if (null == initiator) {
+                    kerberosInitiator = initiator = new KerberosInitiator(this);
+                }
+            }
+        }
+        return initiator;
+    }
+
+    /**
+     * Returns the delegation support of this client which obtains tickets on behalf of users,
+     * requires a {@link KdcClient}.
+     */
+    public ConstrainedDelegation getConstrainedDelegation() {
+        ConstrainedDelegation delegation = constrainedDelegation;
+        if (null == delegation) {
+            synchronized (this) {
+                delegation = constrainedDelegation;
+                if (null == delegation) {
+                    constrainedDelegation = delegation = new ConstrainedDelegation(this, getKerberosInitiator());
+                }
+            }
+        }
+        return delegation;
+    }
+
     public SpnegoContext createContext(URL url) throws PrivilegedActionException, GSSException {
         return new SpnegoContext(this, getGSSContext(url));
     }
@@ -303,30 +1060,102 @@ public final class SpnegoClient {
         }
     }
 
-    public SpnegoContext createAcceptContext() throws PrivilegedActionException {
+    /**
+     * Creates the authorization header for the given url without blocking the calling thread.
+     * Cancelling the returned future before the token has been created skips its creation.
+     */
+    public CompletableFuture<String> createAuthorizationHeaderAsync(final URL url) {
+        return getSubjectAsync().thenApplyAsync(new Function<Subject, String>() {
+            @Override
+            public String apply(Subject subject) {
+                try {
+                    return createAuthroizationHeader(url);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, asyncExecutor);
+    }
+
+    public CompletableFuture<String> createAuthorizationHeaderAsync(URL url, long timeout, TimeUnit unit) {
+        return SpnegoClientExecutors.withDeadline(createAuthorizationHeaderAsync(url), timeout, unit);
+    }
 
-        return new SpnegoContext(this, Subject.doAs(getSubject(), new PrivilegedExceptionAction<GSSContext>() {
+    /**
+     * Creates the authorization header for the given SPN without blocking the calling thread.
+     * Cancelling the returned future before the token has been created skips its creation.
+     */
+    public CompletableFuture<String> createAuthorizationHeaderForSPNAsync(final String spn) {
+        return getSubjectAsync().thenApplyAsync(new Function<Subject, String>() {
             @Override
-            public GSSContext run() throws Exception {
-
-                // IBM JDK only understands indefinite lifetime
-                final int credentialLifetime;
-                if (JreVendor.IS_IBM_JVM) {
-                    credentialLifetime = GSSCredential.INDEFINITE_LIFETIME;
-                } else {
-                    credentialLifetime = GSSCredential.DEFAULT_LIFETIME;
+            public String apply(Subject subject) {
+                try {
+                    return createAuthroizationHeaderForSPN(spn);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
                 }
+            }
+        }, asyncExecutor);
+    }
 
-                GSSCredential credential = SpnegoProvider.GSS_MANAGER.createCredential(
-                        null
-                        , credentialLifetime
-                        , SpnegoProvider.SUPPORTED_OIDS
-                        , GSSCredential.ACCEPT_ONLY); // TODO should it be INIT and ACCEPT ?
+    public CompletableFuture<String> createAuthorizationHeaderForSPNAsync(String spn, long timeout, TimeUnit unit) {
+        return SpnegoClientExecutors.withDeadline(createAuthorizationHeaderForSPNAsync(spn), timeout, unit);
+    }
 
-                return SpnegoProvider.GSS_MANAGER.createContext(credential);
+    public SpnegoContext createAcceptContext() throws PrivilegedActionException, GSSException {
+        return new SpnegoContext(this, SpnegoProvider.GSS_MANAGER.createContext(getCredential(GSSCredential.ACCEPT_ONLY)));
+    }
 
-            }
-        }));
+    /**
+     * Returns the credential of the current Subject for the given usage.
+     *
+     * <p>
+     * Credentials are created within {@link Subject#doAs} once and reused until either they are
+     * about to expire or the Subject is replaced after a new login. Contexts created from a bound
+     * credential do not need the privileged action.
+     * </p>
+     *
+     * @param usage {@link GSSCredential#INITIATE_ONLY} or {@link GSSCredential#ACCEPT_ONLY}
+     * @return credential of the current Subject
+     */
+    private GSSCredential getCredential(final int usage) throws PrivilegedActionException {
+
+        final AtomicReference<SubjectCredentialPair> credentialReference =
+                GSSCredential.ACCEPT_ONLY == usage ? acceptCredentialReference : initiateCredentialReference;
+
+        final Subject subject = getSubject();
+
+        SubjectCredentialPair subjectCredentialPair = credentialReference.get();
+
+        if (null == subjectCredentialPair || !subjectCredentialPair.isValidFor(subject)) {
+
+            GSSCredential credential = Subject.doAs(subject, new PrivilegedExceptionAction<GSSCredential>() {
+                @Override
+                public GSSCredential run() throws Exception {
+
+                    final int credentialLifetime;
+                    if (GSSCredential.ACCEPT_ONLY == usage && JreVendor.IS_IBM_JVM) {
+                        // IBM JDK only understands indefinite lifetime
+                        credentialLifetime = GSSCredential.INDEFINITE_LIFETIME;
+                    } else {
+                        credentialLifetime = GSSCredential.DEFAULT_LIFETIME;
+                    }
+
+                    return SpnegoProvider.GSS_MANAGER.createCredential(
+                            null
+                            , credentialLifetime
+                            , SpnegoProvider.SUPPORTED_OIDS
+                            , usage); // TODO should acceptor be INIT and ACCEPT ?
+
+                }
+            });
+
+            subjectCredentialPair = new SubjectCredentialPair(subject, credential);
+            credentialReference.set(subjectCredentialPair);
+
+        }
+
+        return subjectCredentialPair.credential;
 
     }
 
@@ -352,36 +1181,18 @@ public final class SpnegoClient {
 
     private GSSContext getGSSContext(final GSSName gssName) throws GSSException, PrivilegedActionException {
 
-        // TODO: is it still a thing?
-        // work-around to GSSContext/AD timestamp vs sequence field replay bug
-        try { Thread.sleep(31); } catch (InterruptedException e) { assert true; }
-
-        return Subject.doAs(getSubject(), new PrivilegedExceptionAction<GSSContext>() {
-            @Override
-            public GSSContext run() throws Exception {
-                GSSCredential credential = SpnegoProvider.GSS_MANAGER.createCredential(
-                        null
-                        , GSSCredential.DEFAULT_LIFETIME
-                        , SpnegoProvider.SUPPORTED_OIDS
-                        , GSSCredential.INITIATE_ONLY);
-
-                GSSContext context = SpnegoProvider.GSS_MANAGER.createContext(gssName
-                        , SpnegoProvider.SPNEGO_OID
-                        , credential
-                        , GSSContext.DEFAULT_LIFETIME);
-
-
-                context.requestMutualAuth(true);
-                context.requestConf(true);
-                context.requestInteg(true);
-                context.requestReplayDet(true);
-                context.requestSequenceDet(true);
+        GSSContext context = SpnegoProvider.GSS_MANAGER.createContext(gssName
+                , SpnegoProvider.SPNEGO_OID
+                , getCredential(GSSCredential.INITIATE_ONLY)
+                , GSSContext.DEFAULT_LIFETIME);
 
-                return context;
-
-            }
-        });
+        context.requestMutualAuth(true);
+        context.requestConf(true);
+        context.requestInteg(true);
+        context.requestReplayDet(true);
+        context.requestSequenceDet(true);
 
+        return context;
 
     }
 
@@ -0,0 +1,107 @@
+package client;
+
+import spnego.BlockingExecutors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Background threads shared by all {@link SpnegoClient} instances.
+ *
+ * <p>
+ * All threads are daemon threads so that a forgotten client never prevents JVM shutdown.
+ * </p>
+ */
+final class SpnegoClientExecutors {
+
+    private static final int SCHEDULER_THREADS = 2;
+
+    /** Runs TGT refreshes and other housekeeping tasks. */
+    static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    /**
+     * Default executor of the asynchronous API, runs blocking logins, TGT refreshes and token
+     * creation; virtual threads on Java 21.
+     */
+    static final ExecutorService ASYNC = BlockingExecutors.newExecutor("spnego-client-async");
+
+    private SpnegoClientExecutors() {
+        // default private
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                SCHEDULER_THREADS, new DaemonThreadFactory("spnego-client-scheduler"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Completes the given future with a {@link TimeoutException} unless it is completed within
+     * the given time. Work already running is not interrupted, dependent stages which have not
+     * started yet are skipped.
+     *
+     * @return the given future
+     */
+    static <T> CompletableFuture<T> withDeadline(final CompletableFuture<T> future, final long timeout, final TimeUnit unit) {
+        final ScheduledFuture<?> deadline = SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.completeExceptionally(new TimeoutException("Not completed within " + unit.toMillis(timeout) + "ms"));
+            }
+        }, timeout, unit);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                deadline.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns a future completed with the outcome of the given one, so that callers cannot
+     * complete or cancel a future shared with others.
+     */
+    static <T> CompletableFuture<T> copy(CompletableFuture<T> future) {
+        final CompletableFuture<T> copy = new CompletableFuture<>();
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                if (null == failure) {
+                    copy.complete(value);
+                } else {
+                    copy.completeExceptionally(failure);
+                }
+            }
+        });
+        return copy;
+    }
+
+    static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package client;
+
+import spnego.ConcurrentTtlCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide registry of {@link SpnegoClient} instances keyed by login identity.
+ *
+ * <p>
+ * All callers asking for the same identity share one client and therefore one Subject.
+ * Concurrent first logins are collapsed into a single KDC exchange by the client itself,
+ * since {@link SpnegoClient#getSubject()} lets only one thread log in.
+ * </p>
+ *
+ * <p>
+ * Clients which have not been requested for longer than the idle timeout are evicted.
+ * </p>
+ */
+final class SpnegoClientRegistry {
+
+    enum LoginType {
+        KEYTAB,
+        TICKET_CACHE
+    }
+
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final ConcurrentTtlCache<Key, SpnegoClient> entries;
+
+    private final long idleTimeoutMillis;
+
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+    SpnegoClientRegistry(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.entries = new ConcurrentTtlCache<>(Long.MAX_VALUE, Long.MAX_VALUE, idleTimeoutMillis, null, null);
+    }
+
+    /**
+     * Returns the client registered for the given identity, creating it with the passed-in
+     * factory if there is none. The factory must not perform the login itself.
+     */
+    SpnegoClient get(LoginType loginType, String principal, String keyTabLocation, final Callable<SpnegoClient> factory) {
+
+        scheduleEviction();
+
+        try {
+            return entries.get(new Key(loginType, principal, keyTabLocation), new ConcurrentTtlCache.Loader<Key, SpnegoClient>() {
+                @Override
+                public SpnegoClient load(Key key) throws Exception {
+                    return factory.call();
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+
+    }
+
+    void clear() {
+        entries.invalidateAll();
+    }
+
+    ConcurrentTtlCache.Stats stats() {
+        return entries.stats();
+    }
+
+    private void scheduleEviction() {
+        if (!evictionScheduled.get() && evictionScheduled.compareAndSet(false, true)) {
+            long period = Math.max(idleTimeoutMillis / 2, 1);
+            SpnegoClientExecutors.SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    entries.cleanUp();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class Key {
+
+        private final LoginType loginType;
+        private final String principal;
+        private final String keyTabLocation;
+
+        private Key(LoginType loginType, String principal, String keyTabLocation) {
+            this.loginType = loginType;
+            this.principal = principal;
+            this.keyTabLocation = keyTabLocation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return loginType == that.loginType
+                    && (null == principal ? null == that.principal : principal.equals(that.principal))
+                    && (null == keyTabLocation ? null == that.keyTabLocation : keyTabLocation.equals(that.keyTabLocation));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = loginType.hashCode();
+            result = 31 * result + (null == principal ? 0 : principal.hashCode());
+            result = 31 * result + (null == keyTabLocation ? 0 : keyTabLocation.hashCode());
+            return result;
+        }
+
+    }
+
+}
@@ -10,6 +10,10 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class SpnegoContext implements Closeable {
 
@@ -28,13 +32,33 @@ public class SpnegoContext implements Closeable {
     }
 
     public byte[] createToken() throws PrivilegedActionException {
-        return Subject.doAs(spnegoClient.getSubject(), new PrivilegedExceptionAction<byte[]>() {
-                    @Override
-                    public byte[] run() throws Exception {
-                        return gssContext.initSecContext(EMPTY_BYTE, 0, 0);
+        Subject subject = spnegoClient.getSubject();
+        try {
+            // otherwise JGSS would call the KDC while holding the authenticator timestamp
+            spnegoClient.obtainServiceTicket(subject, gssContext.getTargName());
+        } catch (GSSException e) {
+            throw new PrivilegedActionException(e);
+        }
+        byte[] token;
+        spnegoClient.acquireAuthenticatorTimestamp();
+        try {
+            token = Subject.doAs(subject, new PrivilegedExceptionAction<byte[]>() {
+                        @Override
+                        public byte[] run() throws Exception {
+                            return gssContext.initSecContext(EMPTY_BYTE, 0, 0);
+                        }
                     }
-                }
-        );
+            );
+        } finally {
+            spnegoClient.releaseAuthenticatorTimestamp();
+        }
+        try {
+            // JGSS may have added the service ticket to the Subject
+            spnegoClient.serviceTicketUsed(gssContext.getTargName().toString(), subject);
+        } catch (GSSException e) {
+            throw new PrivilegedActionException(e);
+        }
+        return token;
     }
 
     public String createTokenAsAuthroizationHeader() throws PrivilegedActionException {
@@ -55,6 +79,43 @@ public class SpnegoContext implements Closeable {
         return this.gssContext.acceptSecContext(token, 0, token.length);
     }
 
+    /**
+     * Accepts the token on the executor of the client instead of the calling thread.
+     * The context must not be used by other threads until the returned future completes.
+     */
+    public CompletableFuture<byte[]> acceptTokenAsync(final byte[] token) {
+        return CompletableFuture.supplyAsync(new Supplier<byte[]>() {
+            @Override
+            public byte[] get() {
+                try {
+                    return acceptToken(token);
+                } catch (GSSException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, spnegoClient.getAsyncExecutor());
+    }
+
+    public CompletableFuture<byte[]> acceptTokenAsync(byte[] token, long timeout, TimeUnit unit) {
+        return SpnegoClientExecutors.withDeadline(acceptTokenAsync(token), timeout, unit);
+    }
+
+    /**
+     * Creates the token on the executor of the client instead of the calling thread.
+     */
+    public CompletableFuture<byte[]> createTokenAsync() {
+        return CompletableFuture.supplyAsync(new Supplier<byte[]>() {
+            @Override
+            public byte[] get() {
+                try {
+                    return createToken();
+                } catch (PrivilegedActionException e) {
+                    throw new CompletionException(e.getException());
+                }
+            }
+        }, spnegoClient.getAsyncExecutor());
+    }
+
     //
 
     public GSSName getSrcName() throws GSSException {
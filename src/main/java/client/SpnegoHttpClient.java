@@ -0,0 +1,363 @@
+package client;
+
+import base64.Base64Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spnego.ConcurrentTtlCache;
+import spnego.Constants;
+import spnego.SpnegoKerberosMechToken;
+
+import javax.security.auth.Subject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Minimal HTTP client authenticating with SPNEGO.
+ *
+ * <p>
+ * Every request carries a token right away, also the first one to a host. Were it sent without
+ * one, {@link HttpURLConnection} would answer the Negotiate challenge itself, with whatever
+ * credentials the JDK finds rather than those of the client. The JDK cannot be kept from
+ * handling a 401 per connection, so requests are also sent as the Subject of the client, which
+ * makes the JDK authenticate as the client if it steps in.
+ * </p>
+ *
+ * <p>
+ * A request is only repeated when the server rejects the ticket, in which case a new service
+ * ticket is obtained first. A 401 counts as a rejected ticket if its Negotiate challenge carries
+ * a KRB-ERROR, or carries no token at all and the ticket of the service has not been renewed
+ * within the last {@value #MIN_RENEWAL_INTERVAL_MILLIS} ms; a 401 with a mutual authentication
+ * token means the ticket was accepted and is returned as is.
+ * </p>
+ *
+ * <p>
+ * Connections are kept alive and pooled per host by {@link HttpURLConnection}; the pool size
+ * is controlled by the {@code http.maxConnections} system property. Response bodies are always
+ * read completely so that connections go back to the pool.
+ * </p>
+ *
+ * <p>
+ * Tokens are created by the {@link KerberosInitiator} of the client unless mutual authentication
+ * is enabled, in which case every request gets its own {@link SpnegoContext} and the server reply
+ * token is verified with {@link SpnegoContext#processMutualAuthorization(byte[], int, int)}.
+ * </p>
+ */
+public final class SpnegoHttpClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpnegoHttpClient.class);
+
+    private static final int RENEWAL_CACHE_SIZE = 4096;
+
+    /** Service tickets are renewed at most this often per SPN because of rejected tokens. */
+    public static final long MIN_RENEWAL_INTERVAL_MILLIS = 60000;
+
+    private final SpnegoClient spnegoClient;
+
+    /** Completion time of the last renewal by SPN, kept for {@link #MIN_RENEWAL_INTERVAL_MILLIS}. */
+    private final ConcurrentTtlCache<String, Long> renewals = new ConcurrentTtlCache<>(
+            RENEWAL_CACHE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE, new ConcurrentTtlCache.Expiry<Long>() {
+                @Override
+                public long getExpirationTime(Long renewalTime) {
+                    return renewalTime + MIN_RENEWAL_INTERVAL_MILLIS;
+                }
+            }, null);
+
+    private volatile boolean mutualAuthentication;
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+
+    public SpnegoHttpClient(SpnegoClient spnegoClient) {
+        this.spnegoClient = spnegoClient;
+    }
+
+    /**
+     * Verify the server with a per request JGSS context. Off by default.
+     */
+    public void setMutualAuthentication(boolean mutualAuthentication) {
+        this.mutualAuthentication = mutualAuthentication;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Response get(URL url) throws IOException {
+        return execute("GET", url, Collections.<String, String>emptyMap(), null);
+    }
+
+    public Response post(URL url, Map<String, String> headers, byte[] body) throws IOException {
+        return execute("POST", url, headers, body);
+    }
+
+    /**
+     * @param method HTTP method
+     * @param url target, the service principal is HTTP/host
+     * @param headers request headers
+     * @param body request body, may be null
+     * @return response with its body read completely
+     */
+    public Response execute(String method, URL url, Map<String, String> headers, byte[] body) throws IOException {
+
+        String spn = "HTTP/" + url.getHost();
+
+        long requestTime = System.currentTimeMillis();
+        Exchange exchange = send(method, url, headers, body, spn);
+
+        if (HttpURLConnection.HTTP_UNAUTHORIZED == exchange.response.getStatus() && exchange.response.isNegotiateChallenge()
+                && isTicketRejected(exchange.response) && renewServiceTicket(spn, requestTime)) {
+            // the server could not use the ticket, e.g. after the service key has been changed
+            LOGGER.debug("Ticket rejected by " + url.getHost() + ", retrying with a new service ticket");
+            if (null != exchange.context) exchange.context.close();
+            exchange = send(method, url, headers, body, spn);
+        }
+
+        if (null != exchange.context) {
+            try {
+                verifyMutualAuthentication(exchange);
+            } finally {
+                exchange.context.close();
+            }
+        }
+
+        return exchange.response;
+
+    }
+
+    private Exchange send(String method, URL url, Map<String, String> headers, byte[] body, String spn) throws IOException {
+
+        SpnegoContext context = null;
+        String authorization;
+
+        try {
+            if (mutualAuthentication) {
+                context = spnegoClient.createContextForSPN(spn);
+                authorization = Constants.NEGOTIATE_HEADER + " " + Base64Codec.encode(context.createToken());
+            } else {
+                authorization = spnegoClient.getKerberosInitiator().createAuthorizationHeaderForSPN(spn);
+            }
+        } catch (Exception e) {
+            if (null != context) context.close();
+            throw new IOException("Failed to create token for " + spn, e);
+        }
+
+        try {
+            return new Exchange(context, connectAsClient(method, url, headers, body, authorization));
+        } catch (IOException | RuntimeException e) {
+            if (null != context) context.close();
+            throw e;
+        }
+
+    }
+
+    /**
+     * Connects as the Subject of the client, so that the JDK authenticates as the client should
+     * it answer a Negotiate challenge itself.
+     */
+    private Response connectAsClient(final String method, final URL url, final Map<String, String> headers,
+                                     final byte[] body, final String authorization) throws IOException {
+        try {
+            return Subject.doAs(spnegoClient.getSubject(), new PrivilegedExceptionAction<Response>() {
+                @Override
+                public Response run() throws IOException {
+                    return connect(method, url, headers, body, authorization);
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+
+    private Response connect(String method, URL url, Map<String, String> headers, byte[] body, String authorization) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(false);
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (null != authorization) {
+            connection.setRequestProperty(Constants.AUTHZ_HEADER, authorization);
+        }
+
+        if (null != body) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] content = null == in ? new byte[0] : readFully(in);
+
+        return new Response(status, connection.getHeaderFields(), content);
+
+    }
+
+    private void verifyMutualAuthentication(Exchange exchange) throws IOException {
+
+        int status = exchange.response.getStatus();
+        if (status < 200 || status >= 300) return;
+
+        String replyToken = exchange.response.getNegotiateToken();
+        if (null == replyToken) {
+            throw new IOException("Server did not authenticate itself, no Negotiate token in response");
+        }
+
+        byte[] token = Base64Codec.decode(replyToken);
+        try {
+            exchange.context.processMutualAuthorization(token, 0, token.length);
+        } catch (Exception e) {
+            throw new IOException("Mutual authentication failed", e);
+        }
+
+        if (!exchange.context.isEstablished()) {
+            throw new IOException("Mutual authentication failed, context not established");
+        }
+
+    }
+
+    private static boolean isTicketRejected(Response response) {
+        String token = response.getNegotiateToken();
+        if (null == token) return true;
+        try {
+            return SpnegoKerberosMechToken.isKrbError(Base64Codec.decode(token));
+        } catch (IllegalArgumentException e) {
+            return true; // not Base64, as unclear as no token
+        }
+    }
+
+    /**
+     * Obtains a new service ticket unless one has been obtained within the renewal interval;
+     * concurrent callers share one renewal.
+     *
+     * @param requestTime time the rejected token was created
+     * @return whether the ticket has been renewed since the given time, so that a retry may succeed
+     */
+    private boolean renewServiceTicket(final String spn, long requestTime) throws IOException {
+        long renewalTime;
+        try {
+            renewalTime = renewals.get(spn, new ConcurrentTtlCache.Loader<String, Long>() {
+                @Override
+                public Long load(String spn) throws Exception {
+                    spnegoClient.getKerberosInitiator().renew(spn);
+                    return System.currentTimeMillis();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to obtain new service ticket for " + spn, e.getCause());
+        }
+        return renewalTime >= requestTime;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Exchange {
+
+        private final SpnegoContext context;
+        private final Response response;
+
+        private Exchange(SpnegoContext context, Response response) {
+            this.context = context;
+            this.response = response;
+        }
+
+    }
+
+    public static final class Response {
+
+        private final int status;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        Response(int status, Map<String, List<String>> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return value of the first header with the given name, matched case insensitively
+         */
+        public String getHeader(String name) {
+            List<String> values = getHeaders(name);
+            return values.isEmpty() ? null : values.get(0);
+        }
+
+        private List<String> getHeaders(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (null != header.getKey() && header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        private boolean isNegotiateChallenge() {
+            for (String value : getHeaders(Constants.AUTHN_HEADER)) {
+                if (value.regionMatches(true, 0, Constants.NEGOTIATE_HEADER, 0, Constants.NEGOTIATE_HEADER.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the token of a Negotiate WWW-Authenticate header, null if there is none
+         */
+        private String getNegotiateToken() {
+            for (String value : getHeaders(Constants.AUTHN_HEADER)) {
+                if (value.length() > Constants.NEGOTIATE_HEADER.length() + 1
+                        && value.regionMatches(true, 0, Constants.NEGOTIATE_HEADER, 0, Constants.NEGOTIATE_HEADER.length())) {
+                    return value.substring(Constants.NEGOTIATE_HEADER.length() + 1).trim();
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
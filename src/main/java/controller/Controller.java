@@ -1,46 +1,118 @@
 package controller;
 
-import base64.*;
-import client.SpnegoClient;
-import org.apache.kerby.kerberos.kerb.KrbException;
-import org.apache.kerby.util.Base64;
-import org.springframework.http.HttpStatus;
+import base64.Base64Codec;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import pac.Pac;
-import pac.PacLogonInfo;
-import pac.PacSid;
-import spnego.Kerb4JException;
-import spnego.SpnegoInitToken;
-import spnego.SpnegoKerberosMechToken;
-
-import java.util.Arrays;
+import server.SpnegoAcceptor;
+import server.SpnegoIdentity;
+import spnego.Constants;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
 
 @RestController
 public class Controller {
 
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final SpnegoAcceptor acceptor;
+
+    private final IdentityJsonWriter identityJsonWriter = new IdentityJsonWriter();
+
+    @Autowired
+    public Controller(SpnegoAcceptor acceptor) {
+        this.acceptor = acceptor;
+    }
+
+    /**
+     * Returns the authenticated client as JSON, see {@link IdentityJsonWriter#toJson(SpnegoIdentity)}.
+     * The PAC is only decoded the first time a ticket is presented, the body is cached until the
+     * ticket ends.
+     */
     @RequestMapping(value = "/test", method = RequestMethod.GET)
-    public ResponseEntity<String> test(@RequestParam String token) {
-        try{
-            SpnegoClient spnegoClient = SpnegoClient.loginWithKeyTab("svc_consumer", "/opt/myapp/consumer.keytab");
-            String negotiateHeaderValue = token.substring(10);
-            byte[] decoded = Base64.decodeBase64(negotiateHeaderValue);
-            SpnegoInitToken spnegoInitToken = new SpnegoInitToken(decoded);
-            SpnegoKerberosMechToken spnegoKerberosMechToken = spnegoInitToken.getSpnegoKerberosMechToken();
-            Pac pac = spnegoKerberosMechToken.getPac(spnegoClient.getKerberosKeys());
-            PacLogonInfo logonInfo = pac.getLogonInfo();
-            String username = logonInfo.getUserName();
-            List<String> roles = Stream.of(logonInfo.getGroupSids()).map(PacSid::toHumanReadableString).collect(Collectors.toList());
-            String response = "Username: " + username + "; Roles: " + String.join(";", roles);
-            return new ResponseEntity<>(response, HttpStatus.OK);
-        } catch (Exception e) {
-            return new ResponseEntity<>(Arrays.toString(e.getStackTrace()), HttpStatus.OK);
+    public ResponseEntity<byte[]> test(SpnegoIdentity identity) throws IOException {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(identityJsonWriter.toJson(identity));
+    }
+
+    /**
+     * Validates a JSON array of Negotiate header values or Base64 tokens in parallel.
+     *
+     * <p>
+     * Responds with one JSON object per line and token, written as soon as the token has been
+     * validated, so not in the order of the request: {@code {"index":0,"valid":true,"principal":"user@REALM"}}
+     * or {@code {"index":1,"valid":false,"error":"..."}}.
+     * </p>
+     */
+    @RequestMapping(value = "/validate/batch", method = RequestMethod.POST)
+    public void validateBatch(@RequestBody List<String> tokens, HttpServletResponse response)
+            throws IOException, InterruptedException {
+
+        if (tokens.size() > MAX_BATCH_SIZE) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + MAX_BATCH_SIZE + " tokens per batch");
+            return;
+        }
+
+        List<byte[]> decodedTokens = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            decodedTokens.add(decodeToken(token));
+        }
+
+        final List<CompletableFuture<SpnegoIdentity>> futures = acceptor.acceptBatch(decodedTokens);
+
+        final BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).whenComplete(new BiConsumer<SpnegoIdentity, Throwable>() {
+                @Override
+                public void accept(SpnegoIdentity identity, Throwable failure) {
+                    completed.add(index);
+                }
+            });
+        }
+
+        response.setContentType("application/x-ndjson");
+
+        try (JsonGenerator generator = IdentityJsonWriter.createLineGenerator(response.getOutputStream())) {
+
+            for (int i = 0; i < futures.size(); i++) {
+
+                int index = completed.take();
+                try {
+                    IdentityJsonWriter.writeBatchResult(generator, index, futures.get(index).join(), null);
+                } catch (CompletionException e) {
+                    IdentityJsonWriter.writeBatchResult(generator, index, null, e.getCause());
+                }
+                generator.flush();
+
+            }
+
+        }
+
+    }
+
+    private static byte[] decodeToken(String token) {
+        String value = token.trim();
+        if (value.startsWith(Constants.NEGOTIATE_HEADER + " ")) {
+            value = value.substring(Constants.NEGOTIATE_HEADER.length() + 1).trim();
+        }
+        try {
+            return Base64Codec.decode(value);
+        } catch (RuntimeException e) {
+            return new byte[0];
         }
     }
+
 }
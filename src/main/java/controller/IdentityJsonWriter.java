@@ -0,0 +1,175 @@
+package controller;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import pac.PacLogonInfo;
+import pac.PacSid;
+import server.SpnegoIdentity;
+import spnego.ConcurrentTtlCache;
+import spnego.Kerb4JException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes identities as JSON with a streaming generator.
+ *
+ * <p>
+ * Field names are encoded once. The body of an identity is cached per ticket, identified by a
+ * digest of its encrypted part, until the ticket ends, so that repeated requests with the same
+ * ticket neither decode the PAC nor serialize again. A new ticket, e.g. with other groups, gets
+ * a new body.
+ * </p>
+ */
+final class IdentityJsonWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final SerializedString USER = new SerializedString("user");
+    private static final SerializedString PRINCIPAL = new SerializedString("principal");
+    private static final SerializedString REALM = new SerializedString("realm");
+    private static final SerializedString GROUPS = new SerializedString("groups");
+    private static final SerializedString INDEX = new SerializedString("index");
+    private static final SerializedString VALID = new SerializedString("valid");
+    private static final SerializedString ERROR = new SerializedString("error");
+
+    private static final int MAXIMUM_SIZE = 10000;
+
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** Bodies by SHA-256 of the ticket cipher, which is up to a few kilobytes. */
+    private final ConcurrentTtlCache<ByteBuffer, Body> bodies = new ConcurrentTtlCache<>(MAXIMUM_SIZE,
+            Long.MAX_VALUE, IDLE_MILLIS, new ConcurrentTtlCache.Expiry<Body>() {
+                @Override
+                public long getExpirationTime(Body body) {
+                    return body.expirationTime;
+                }
+            }, null);
+
+    /**
+     * @return {@code {"user":"user","principal":"user@REALM","realm":"REALM","groups":["S-1-5-...",...]}}
+     * @throws IOException also if the PAC could not be decoded, which is not cached
+     */
+    byte[] toJson(final SpnegoIdentity identity) throws IOException {
+        byte[] ticketCipher = identity.getTicketCipher();
+        try {
+            if (null == ticketCipher) {
+                // restored from a session token, the groups are at hand
+                return serialize(identity);
+            }
+            return bodies.get(ByteBuffer.wrap(sha256(ticketCipher)),
+                    new ConcurrentTtlCache.Loader<ByteBuffer, Body>() {
+                        @Override
+                        public Body load(ByteBuffer key) throws IOException, Kerb4JException {
+                            return new Body(serialize(identity), identity.getExpirationTime());
+                        }
+                    }).bytes;
+        } catch (Kerb4JException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a generator for {@link #writeBatchResult(JsonGenerator, int, SpnegoIdentity, Throwable)},
+     * which writes one value per line without separator between them.
+     */
+    static JsonGenerator createLineGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    /**
+     * Writes {@code {"index":0,"valid":true,"principal":"user@REALM"}} or
+     * {@code {"index":1,"valid":false,"error":"..."}} followed by a line break.
+     */
+    static void writeBatchResult(JsonGenerator generator, int index, SpnegoIdentity identity, Throwable failure)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(INDEX);
+        generator.writeNumber(index);
+        generator.writeFieldName(VALID);
+        generator.writeBoolean(null == failure);
+        if (null == failure) {
+            generator.writeFieldName(PRINCIPAL);
+            generator.writeString(identity.getName());
+        } else {
+            generator.writeFieldName(ERROR);
+            generator.writeString(String.valueOf(failure.getMessage()));
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private static byte[] serialize(SpnegoIdentity identity) throws IOException, Kerb4JException {
+
+        ByteArrayBuilder bytes = new ByteArrayBuilder(512);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(bytes, JsonEncoding.UTF8)) {
+
+            generator.writeStartObject();
+            generator.writeFieldName(USER);
+            generator.writeString(identity.getUserName());
+            generator.writeFieldName(PRINCIPAL);
+            generator.writeString(identity.getName());
+            generator.writeFieldName(REALM);
+            generator.writeString(identity.getRealm());
+
+            generator.writeFieldName(GROUPS);
+            generator.writeStartArray();
+            PacLogonInfo logonInfo = identity.getLogonInfo();
+            if (null != logonInfo && null != logonInfo.getGroupSids()) {
+                // straight from the SID bytes, without intermediate strings
+                StringBuilder sid = new StringBuilder(64);
+                char[] chars = new char[64];
+                for (PacSid groupSid : logonInfo.getGroupSids()) {
+                    sid.setLength(0);
+                    groupSid.appendHumanReadable(sid);
+                    if (chars.length < sid.length()) chars = new char[sid.length()];
+                    sid.getChars(0, sid.length(), chars, 0);
+                    generator.writeString(chars, 0, sid.length());
+                }
+            } else {
+                for (String groupSid : identity.getGroupSids()) {
+                    generator.writeString(groupSid);
+                }
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+
+        }
+        return bytes.toByteArray();
+
+    }
+
+    private static final class Body {
+
+        private final byte[] bytes;
+        private final long expirationTime;
+
+        private Body(byte[] bytes, long expirationTime) {
+            this.bytes = bytes;
+            this.expirationTime = expirationTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package controller;
+
+import client.ServiceTicketPrefetcher;
+import client.SpnegoClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.util.Arrays;
+
+/**
+ * Obtains the service tickets of the configured targets when the application starts and keeps
+ * them refreshed until it stops.
+ *
+ * <p>
+ * Configured with context parameters, does nothing unless {@code spnego.prefetch.principal}
+ * and {@code spnego.prefetch.targets} are set:
+ * </p>
+ * <ul>
+ *     <li>{@code spnego.prefetch.principal} - client principal</li>
+ *     <li>{@code spnego.prefetch.keytab} - keytab of the client principal, ticket cache is used if not set</li>
+ *     <li>{@code spnego.prefetch.targets} - comma separated SPNs or URLs</li>
+ *     <li>{@code spnego.prefetch.parallelism} - maximum number of concurrent KDC exchanges, 8 by default</li>
+ * </ul>
+ */
+public class ServiceTicketPrefetchListener implements ServletContextListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceTicketPrefetchListener.class);
+
+    private static final int DEFAULT_PARALLELISM = 8;
+
+    private ServiceTicketPrefetcher prefetcher;
+
+    @Override
+    public void contextInitialized(ServletContextEvent servletContextEvent) {
+
+        ServletContext servletContext = servletContextEvent.getServletContext();
+        String principal = servletContext.getInitParameter("spnego.prefetch.principal");
+        String keyTab = servletContext.getInitParameter("spnego.prefetch.keytab");
+        String targets = servletContext.getInitParameter("spnego.prefetch.targets");
+        String parallelism = servletContext.getInitParameter("spnego.prefetch.parallelism");
+
+        if (null == principal || null == targets || targets.trim().isEmpty()) return;
+
+        SpnegoClient spnegoClient = null == keyTab
+                ? SpnegoClient.loginWithTicketCache(principal, true)
+                : SpnegoClient.loginWithKeyTab(principal, keyTab, true);
+
+        prefetcher = new ServiceTicketPrefetcher(spnegoClient,
+                null == parallelism ? DEFAULT_PARALLELISM : Integer.parseInt(parallelism.trim()));
+
+        ServiceTicketPrefetcher.Result result = prefetcher.keepRefreshed(Arrays.asList(targets.split(",")));
+        if (result.isSuccessful()) {
+            LOGGER.info("Prefetched service tickets for " + result.getSucceeded().keySet());
+        } else {
+            LOGGER.warn("Failed to prefetch service tickets for " + result.getFailed().keySet()
+                    + ", retrying in background");
+        }
+
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        if (null != prefetcher) {
+            prefetcher.close();
+        }
+    }
+
+}
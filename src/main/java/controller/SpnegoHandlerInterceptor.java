@@ -0,0 +1,70 @@
+package controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import server.SpnegoAcceptor;
+import server.SpnegoAuthenticationFilter;
+import server.SpnegoIdentity;
+import spnego.Constants;
+import spnego.SpnegoAuthScheme;
+import spnego.SpnegoProvider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Authenticates requests to handler methods taking a {@link SpnegoIdentity} argument.
+ *
+ * <p>
+ * Only the token is validated here; the PAC is decoded when the handler first reads it from
+ * the identity. Requests already authenticated by {@link SpnegoAuthenticationFilter} are not
+ * validated again.
+ * </p>
+ *
+ * @see SpnegoIdentityArgumentResolver
+ */
+public class SpnegoHandlerInterceptor extends HandlerInterceptorAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpnegoHandlerInterceptor.class);
+
+    private final SpnegoAcceptor acceptor;
+
+    public SpnegoHandlerInterceptor(SpnegoAcceptor acceptor) {
+        this.acceptor = acceptor;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+
+        if (!requiresIdentity(handler)) return true;
+        if (request.getAttribute(SpnegoAuthenticationFilter.IDENTITY_ATTRIBUTE) instanceof SpnegoIdentity) return true;
+
+        try {
+            SpnegoAuthScheme authScheme = SpnegoProvider.getAuthScheme(request.getHeader(Constants.AUTHZ_HEADER));
+            if (null != authScheme && Constants.NEGOTIATE_HEADER.equals(authScheme.getScheme())) {
+                SpnegoIdentity identity = acceptor.accept(authScheme.getToken());
+                request.setAttribute(SpnegoAuthenticationFilter.IDENTITY_ATTRIBUTE, identity);
+                return true;
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Rejected SPNEGO token", e);
+        }
+
+        response.setHeader(Constants.AUTHN_HEADER, Constants.NEGOTIATE_HEADER);
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        return false;
+
+    }
+
+    private static boolean requiresIdentity(Object handler) {
+        if (!(handler instanceof HandlerMethod)) return false;
+        for (MethodParameter parameter : ((HandlerMethod) handler).getMethodParameters()) {
+            if (SpnegoIdentity.class == parameter.getParameterType()) return true;
+        }
+        return false;
+    }
+
+}
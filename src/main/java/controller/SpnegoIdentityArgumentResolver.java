@@ -0,0 +1,34 @@
+package controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import server.SpnegoAuthenticationFilter;
+import server.SpnegoIdentity;
+
+/**
+ * Passes the {@link SpnegoIdentity} of the request to handler method arguments of that type.
+ *
+ * @see SpnegoHandlerInterceptor
+ */
+public class SpnegoIdentityArgumentResolver implements HandlerMethodArgumentResolver {
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return SpnegoIdentity.class == parameter.getParameterType();
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Object identity = webRequest.getAttribute(SpnegoAuthenticationFilter.IDENTITY_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (!(identity instanceof SpnegoIdentity)) {
+            throw new IllegalStateException("Request has not been authenticated, is SpnegoHandlerInterceptor registered?");
+        }
+        return identity;
+    }
+
+}
@@ -1,20 +1,49 @@
 package controller;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
 import org.springframework.data.web.config.EnableSpringDataWebSupport;
 
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.*;
+import server.SpnegoAcceptor;
+
+import java.util.List;
 
 
 @Configuration
 @ComponentScan("controller")
 @EnableWebMvc
 @EnableSpringDataWebSupport
+@PropertySource("classpath:application.properties")
 public class WebMvcConfig implements WebMvcConfigurer {
 
+    @Value("${spnego.principal}")
+    private String spnegoPrincipal;
+
+    @Value("${spnego.keytab}")
+    private String spnegoKeyTab;
+
+    @Bean
+    public SpnegoAcceptor spnegoAcceptor() {
+        return SpnegoAcceptor.forKeyTab(spnegoPrincipal, spnegoKeyTab);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new SpnegoHandlerInterceptor(spnegoAcceptor()));
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new SpnegoIdentityArgumentResolver());
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("*").addResourceLocations("/", "classpath:/");
@@ -0,0 +1,57 @@
+package kdc;
+
+import org.apache.kerby.kerberos.kerb.KrbCodec;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptedData;
+import org.apache.kerby.kerberos.kerb.type.base.KrbMessageType;
+import spnego.DerWriter;
+
+/**
+ * Frames KRB_AP_REQ messages around already encoded tickets.
+ *
+ * <p>
+ * The ticket is copied into the message as received from the KDC instead of being decoded
+ * and encoded again, so it stays byte for byte what the KDC issued.
+ * </p>
+ */
+public final class ApReqEncoder {
+
+    /** AP-REQ without any ap-options set. */
+    private static final byte[] AP_OPTIONS = DerWriter.encode(DerWriter.context(2),
+            new byte[]{DerWriter.BIT_STRING, 5, 0, 0, 0, 0, 0});
+
+    private static final byte[] AP_REQ_HEADER = concat(
+            DerWriter.encode(DerWriter.context(0), DerWriter.encodeInteger(5)),
+            DerWriter.encode(DerWriter.context(1), DerWriter.encodeInteger(KrbMessageType.AP_REQ.getValue())),
+            AP_OPTIONS);
+
+    private ApReqEncoder() {
+        // default private
+    }
+
+    /**
+     * @param encodedTicket ticket as issued by the KDC
+     * @param encryptedAuthenticator authenticator encrypted with the ticket session key
+     * @return encoded AP-REQ
+     */
+    public static byte[] encode(byte[] encodedTicket, EncryptedData encryptedAuthenticator) throws KrbException {
+        return DerWriter.encode(DerWriter.application(KrbMessageType.AP_REQ.getValue()),
+                DerWriter.encode(DerWriter.SEQUENCE,
+                        AP_REQ_HEADER,
+                        DerWriter.encode(DerWriter.context(3), encodedTicket),
+                        DerWriter.encode(DerWriter.context(4), KrbCodec.encode(encryptedAuthenticator))));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) length += part.length;
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,213 @@
+package kdc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends every request to the KDC expected to answer fastest and, if it has not answered
+ * within its hedge delay, also to the next one, until one of them replies.
+ *
+ * <p>
+ * Unlike the serial failover of JGSS, a slow or unreachable KDC costs at most one hedge
+ * delay instead of a full timeout per attempt. Hedge delays and timeouts are derived from
+ * the latency observed per KDC (see {@link LatencyEstimator}) instead of fixed values, and
+ * KDCs are tried in order of their expected round trip time. A KDC which fails is retried
+ * with a doubled timeout and ends up at the back of the order until it answers again.
+ * </p>
+ */
+public final class HedgedKdcTransport implements KdcTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgedKdcTransport.class);
+
+    public static final int DEFAULT_KDC_PORT = 88;
+
+    public static final long DEFAULT_INITIAL_RTT_MILLIS = 300;
+    public static final long DEFAULT_MIN_TIMEOUT_MILLIS = 500;
+    public static final long DEFAULT_MAX_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final List<Kdc> kdcs;
+
+    /**
+     * @param kdcs host or host:port of every KDC of the realm
+     */
+    public static HedgedKdcTransport forKdcs(String... kdcs) {
+        List<KdcTransport> transports = new ArrayList<>();
+        for (String kdc : kdcs) {
+            int portSeparator = kdc.lastIndexOf(':');
+            String host = portSeparator < 0 ? kdc.trim() : kdc.substring(0, portSeparator).trim();
+            int port = portSeparator < 0 ? DEFAULT_KDC_PORT : Integer.parseInt(kdc.substring(portSeparator + 1).trim());
+            transports.add(new TcpKdcConnection(InetSocketAddress.createUnresolved(host, port)));
+        }
+        return new HedgedKdcTransport(transports);
+    }
+
+    public HedgedKdcTransport(List<? extends KdcTransport> transports) {
+        this(transports, DEFAULT_INITIAL_RTT_MILLIS, DEFAULT_MIN_TIMEOUT_MILLIS, DEFAULT_MAX_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param transports one transport per KDC
+     * @param initialRttMillis round trip time assumed for a KDC until it has answered once
+     * @param minTimeoutMillis lower bound of the adaptive timeout
+     * @param maxTimeoutMillis upper bound of the adaptive timeout
+     */
+    public HedgedKdcTransport(List<? extends KdcTransport> transports, long initialRttMillis,
+                              long minTimeoutMillis, long maxTimeoutMillis) {
+        if (transports.isEmpty()) throw new IllegalArgumentException("No KDC");
+        List<Kdc> kdcs = new ArrayList<>(transports.size());
+        for (KdcTransport transport : transports) {
+            kdcs.add(new Kdc(transport, new LatencyEstimator(initialRttMillis, minTimeoutMillis, maxTimeoutMillis)));
+        }
+        this.kdcs = Collections.unmodifiableList(kdcs);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(byte[] request) {
+
+        List<Kdc> ordered = new ArrayList<>(kdcs);
+        Collections.sort(ordered, new Comparator<Kdc>() {
+            @Override
+            public int compare(Kdc o1, Kdc o2) {
+                return Double.compare(o1.estimator.getExpectedRttMillis(), o2.estimator.getExpectedRttMillis());
+            }
+        });
+
+        Race race = new Race(request, ordered);
+        race.startNext();
+        return race.result;
+
+    }
+
+    @Override
+    public void close() {
+        for (Kdc kdc : kdcs) {
+            kdc.transport.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedKdcTransport" + kdcs;
+    }
+
+    private static final class Kdc {
+
+        private final KdcTransport transport;
+        private final LatencyEstimator estimator;
+
+        private Kdc(KdcTransport transport, LatencyEstimator estimator) {
+            this.transport = transport;
+            this.estimator = estimator;
+        }
+
+        @Override
+        public String toString() {
+            return transport + "=" + estimator;
+        }
+
+    }
+
+    /**
+     * One request sent to KDCs in turn until the first reply.
+     */
+    private static final class Race {
+
+        private final byte[] request;
+        private final List<Kdc> kdcs;
+
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private final AtomicInteger nextKdc = new AtomicInteger();
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private volatile Throwable lastFailure;
+
+        private Race(byte[] request, List<Kdc> kdcs) {
+            this.request = request;
+            this.kdcs = kdcs;
+        }
+
+        private void startNext() {
+
+            if (result.isDone()) return;
+
+            int index = nextKdc.getAndIncrement();
+            if (index >= kdcs.size()) {
+                if (0 == outstanding.get()) {
+                    result.completeExceptionally(null == lastFailure ? new SocketTimeoutException("No KDC answered") : lastFailure);
+                }
+                return;
+            }
+
+            final Kdc kdc = kdcs.get(index);
+            final long startTime = System.nanoTime();
+            outstanding.incrementAndGet();
+
+            final CompletableFuture<byte[]> reply = kdc.transport.send(request);
+
+            final ScheduledFuture<?> timeout = KdcExecutors.SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reply.completeExceptionally(new SocketTimeoutException("No reply from " + kdc.transport
+                            + " within " + kdc.estimator.getTimeoutMillis() + "ms"));
+                }
+            }, kdc.estimator.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+            final ScheduledFuture<?> hedge = index + 1 < kdcs.size() ? KdcExecutors.SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    LOGGER.debug("No reply from " + kdc.transport + " yet, trying next KDC");
+                    startNext();
+                }
+            }, kdc.estimator.getHedgeDelayMillis(), TimeUnit.MILLISECONDS) : null;
+
+            reply.whenComplete(new BiConsumer<byte[], Throwable>() {
+                @Override
+                public void accept(byte[] bytes, Throwable failure) {
+
+                    timeout.cancel(false);
+                    if (null != hedge) hedge.cancel(false);
+
+                    if (null == failure) {
+                        kdc.estimator.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                        result.complete(bytes);
+                        return;
+                    }
+
+                    if (result.isDone()) return; // lost the race, not the KDC's fault
+
+                    kdc.estimator.recordFailure();
+                    lastFailure = failure;
+                    LOGGER.debug("Request to " + kdc.transport + " failed: " + failure);
+
+                    outstanding.decrementAndGet();
+                    startNext();
+
+                }
+            });
+
+            // stop waiting for the slower KDCs once one has answered
+            result.whenComplete(new BiConsumer<byte[], Throwable>() {
+                @Override
+                public void accept(byte[] bytes, Throwable failure) {
+                    reply.cancel(false);
+                }
+            });
+
+        }
+
+    }
+
+}
@@ -0,0 +1,538 @@
+package kdc;
+
+import org.apache.kerby.kerberos.kerb.KrbCodec;
+import org.apache.kerby.kerberos.kerb.KrbErrorCode;
+import org.apache.kerby.kerberos.kerb.KrbErrorException;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.crypto.CheckSumHandler;
+import org.apache.kerby.kerberos.kerb.crypto.EncryptionHandler;
+import org.apache.kerby.kerberos.kerb.type.KerberosTime;
+import org.apache.kerby.kerberos.kerb.type.ap.Authenticator;
+import org.apache.kerby.kerberos.kerb.type.base.CheckSum;
+import org.apache.kerby.kerberos.kerb.type.base.CheckSumType;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptedData;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionKey;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionType;
+import org.apache.kerby.kerberos.kerb.type.base.KeyUsage;
+import org.apache.kerby.kerberos.kerb.type.base.KrbError;
+import org.apache.kerby.kerberos.kerb.type.base.KrbMessage;
+import org.apache.kerby.kerberos.kerb.type.base.NameType;
+import org.apache.kerby.kerberos.kerb.type.base.PrincipalName;
+import org.apache.kerby.kerberos.kerb.type.kdc.AsRep;
+import org.apache.kerby.kerberos.kerb.type.kdc.AsReq;
+import org.apache.kerby.kerberos.kerb.type.kdc.EncAsRepPart;
+import org.apache.kerby.kerberos.kerb.type.kdc.EncKdcRepPart;
+import org.apache.kerby.kerberos.kerb.type.kdc.EncTgsRepPart;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcOption;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcOptions;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcRep;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcReq;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcReqBody;
+import org.apache.kerby.kerberos.kerb.type.kdc.TgsRep;
+import org.apache.kerby.kerberos.kerb.type.kdc.TgsReq;
+import org.apache.kerby.kerberos.kerb.type.pa.PaDataEntry;
+import org.apache.kerby.kerberos.kerb.type.pa.PaDataType;
+import org.apache.kerby.kerberos.kerb.type.pa.PaEncTsEnc;
+import org.apache.kerby.kerberos.kerb.type.ticket.Ticket;
+import org.apache.kerby.kerberos.kerb.type.ticket.Tickets;
+import spnego.DerWriter;
+
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Performs AS, TGS and renewal exchanges over a {@link KdcTransport}, independent of the
+ * KDC communication built into JGSS.
+ *
+ * <p>
+ * Tickets are returned as {@link KerberosTicket} so that they can be put into a Subject and
+ * used by JGSS like tickets obtained by {@code Krb5LoginModule}. Only the encrypted timestamp
+ * pre-authentication is supported and referrals to other realms are not followed.
+ * </p>
+ *
+ * <p>
+ * Protocol transition and constrained delegation are supported through the S4U2Self and
+ * S4U2Proxy extensions, [MS-SFU].
+ * </p>
+ */
+public final class KdcClient {
+
+    public static final long DEFAULT_TICKET_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(10);
+    public static final long DEFAULT_RENEWABLE_LIFETIME_MILLIS = TimeUnit.DAYS.toMillis(7);
+    public static final long DEFAULT_EXCHANGE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /** Requested encryption types, most preferred first. */
+    private static final List<EncryptionType> ENCRYPTION_TYPES = Arrays.asList(
+            EncryptionType.AES256_CTS_HMAC_SHA1_96,
+            EncryptionType.AES128_CTS_HMAC_SHA1_96,
+            EncryptionType.ARCFOUR_HMAC);
+
+    /** DER tag of EncASRepPart; some KDCs send an EncTGSRepPart in AS replies. */
+    private static final int ENC_AS_REP_PART_TAG = 0x79;
+
+    /** Key usage of the PA-FOR-USER checksum, [MS-SFU] 2.2.1. */
+    private static final KeyUsage PA_FOR_USER_CHECKSUM = KeyUsage.fromValue(17);
+
+    private static final String AUTH_PACKAGE = "Kerberos";
+
+    /** DER tag of GeneralString, used for realms and KerberosString. */
+    private static final int GENERAL_STRING = 0x1B;
+
+    private static final SecureRandom NONCES = new SecureRandom();
+
+    private final KdcTransport transport;
+
+    private volatile long ticketLifetimeMillis = DEFAULT_TICKET_LIFETIME_MILLIS;
+    private volatile long renewableLifetimeMillis = DEFAULT_RENEWABLE_LIFETIME_MILLIS;
+    private volatile long exchangeTimeoutMillis = DEFAULT_EXCHANGE_TIMEOUT_MILLIS;
+
+    public KdcClient(KdcTransport transport) {
+        this.transport = transport;
+    }
+
+    public void setTicketLifetimeMillis(long ticketLifetimeMillis) {
+        this.ticketLifetimeMillis = ticketLifetimeMillis;
+    }
+
+    public void setRenewableLifetimeMillis(long renewableLifetimeMillis) {
+        this.renewableLifetimeMillis = renewableLifetimeMillis;
+    }
+
+    /**
+     * Sets how long to wait for the reply to a single request, including retries and other KDCs
+     * tried by the transport.
+     */
+    public void setExchangeTimeoutMillis(long exchangeTimeoutMillis) {
+        this.exchangeTimeoutMillis = exchangeTimeoutMillis;
+    }
+
+    public KdcTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Obtains a renewable TGT with the long term keys of the client.
+     *
+     * @param client client principal
+     * @param keys keys of the client, e.g. from its keytab
+     * @return TGT of the client
+     */
+    public KerberosTicket requestTgt(KerberosPrincipal client, KerberosKey[] keys) throws KrbException {
+
+        List<EncryptionKey> clientKeys = selectKeys(keys);
+        if (clientKeys.isEmpty()) throw new KrbException("No usable key for " + client);
+
+        List<EncryptionType> encryptionTypes = new ArrayList<>();
+        for (EncryptionKey clientKey : clientKeys) {
+            encryptionTypes.add(clientKey.getKeyType());
+        }
+
+        KrbException lastError = null;
+
+        // pre-authenticate with the strongest key, fall back to weaker ones if the KDC rejects it
+        for (EncryptionKey clientKey : clientKeys) {
+
+            long now = System.currentTimeMillis();
+
+            KdcReqBody body = new KdcReqBody();
+            body.setKdcOptions(options(KdcOption.FORWARDABLE, KdcOption.RENEWABLE, KdcOption.RENEWABLE_OK));
+            body.setCname(toPrincipalName(client, NameType.NT_PRINCIPAL));
+            body.setRealm(client.getRealm());
+            body.setSname(new PrincipalName(Arrays.asList("krbtgt", client.getRealm()), NameType.NT_SRV_INST));
+            body.setTill(new KerberosTime(now + ticketLifetimeMillis));
+            body.setRtime(new KerberosTime(now + renewableLifetimeMillis));
+            body.setNonce(nonce());
+            body.setEtypes(encryptionTypes);
+
+            PaEncTsEnc timestamp = new PaEncTsEnc();
+            timestamp.setPaTimestamp(new KerberosTime(now / 1000 * 1000));
+            timestamp.setPaUsec((int) (now % 1000) * 1000);
+            EncryptedData encryptedTimestamp = EncryptionHandler.encrypt(
+                    KrbCodec.encode(timestamp), clientKey, KeyUsage.AS_REQ_PA_ENC_TS);
+
+            AsReq asReq = new AsReq();
+            asReq.setReqBody(body);
+            asReq.addPaData(new PaDataEntry(PaDataType.ENC_TIMESTAMP, KrbCodec.encode(encryptedTimestamp)));
+
+            AsRep asRep;
+            try {
+                asRep = exchange(asReq, AsRep.class);
+            } catch (KrbErrorException e) {
+                KrbErrorCode errorCode = e.getKrbError().getErrorCode();
+                if (KrbErrorCode.KDC_ERR_PREAUTH_FAILED == errorCode || KrbErrorCode.KDC_ERR_ETYPE_NOSUPP == errorCode) {
+                    lastError = e;
+                    continue;
+                }
+                throw e;
+            }
+
+            EncryptionKey replyKey = findKey(clientKeys, asRep.getEncryptedEncPart().getEType());
+            if (null == replyKey) {
+                throw new KrbException("AS reply encrypted with unrequested " + asRep.getEncryptedEncPart().getEType());
+            }
+
+            EncKdcRepPart encPart = decryptEncPart(asRep, replyKey, KeyUsage.AS_REP_ENCPART);
+            verifyNonce(body, encPart);
+
+            return toKerberosTicket(asRep, encPart);
+
+        }
+
+        throw lastError;
+
+    }
+
+    /**
+     * Obtains a service ticket with the given TGT.
+     *
+     * @param tgt TGT of the client, issued by the realm of the service
+     * @param spn service/host, optionally followed by @REALM
+     * @return service ticket
+     */
+    public KerberosTicket requestServiceTicket(KerberosTicket tgt, String spn) throws KrbException {
+
+        int realmSeparator = spn.lastIndexOf('@');
+        String serviceName = realmSeparator < 0 ? spn : spn.substring(0, realmSeparator);
+        String realm = realmSeparator < 0 ? tgt.getServer().getRealm() : spn.substring(realmSeparator + 1);
+
+        KdcReqBody body = new KdcReqBody();
+        body.setKdcOptions(tgt.isForwardable() ? options(KdcOption.FORWARDABLE) : options());
+        body.setRealm(realm);
+        body.setSname(new PrincipalName(Arrays.asList(serviceName.split("/")), NameType.NT_SRV_INST));
+        body.setTill(new KerberosTime(System.currentTimeMillis() + ticketLifetimeMillis));
+        body.setNonce(nonce());
+        body.setEtypes(implementedEncryptionTypes());
+
+        return tgsExchange(tgt, body);
+
+    }
+
+    /**
+     * Renews the given renewable ticket, which may be a TGT or a service ticket.
+     *
+     * @return renewed ticket
+     */
+    public KerberosTicket renew(KerberosTicket ticket) throws KrbException {
+
+        if (!ticket.isRenewable() || null == ticket.getRenewTill()) {
+            throw new KrbException("Ticket for " + ticket.getServer() + " is not renewable");
+        }
+
+        KdcReqBody body = new KdcReqBody();
+        body.setKdcOptions(ticket.isForwardable()
+                ? options(KdcOption.RENEW, KdcOption.RENEWABLE, KdcOption.FORWARDABLE)
+                : options(KdcOption.RENEW, KdcOption.RENEWABLE));
+        body.setRealm(ticket.getServer().getRealm());
+        body.setSname(toPrincipalName(ticket.getServer(), NameType.NT_SRV_INST));
+        body.setTill(new KerberosTime(ticket.getRenewTill().getTime()));
+        body.setRtime(new KerberosTime(ticket.getRenewTill().getTime()));
+        body.setNonce(nonce());
+        body.setEtypes(implementedEncryptionTypes());
+
+        // the ticket to renew authenticates the request itself
+        return tgsExchange(ticket, body);
+
+    }
+
+    /**
+     * Obtains a ticket to the service itself on behalf of the given user, without any
+     * credentials of the user (S4U2Self, protocol transition).
+     *
+     * <p>
+     * The ticket carries the PAC of the user and is forwardable only if the service is trusted
+     * to authenticate for delegation, in which case it serves as evidence for
+     * {@link #requestProxyTicket(KerberosTicket, KerberosTicket, String)}.
+     * </p>
+     *
+     * @param tgt TGT of the service
+     * @param user user principal, the realm of the service is assumed if it has none
+     * @return ticket to the service with the user as client
+     */
+    public KerberosTicket requestS4U2SelfTicket(KerberosTicket tgt, KerberosPrincipal user) throws KrbException {
+
+        KerberosPrincipal service = tgt.getClient();
+
+        KdcReqBody body = new KdcReqBody();
+        body.setKdcOptions(options(KdcOption.FORWARDABLE));
+        body.setRealm(service.getRealm());
+        body.setSname(toPrincipalName(service, NameType.fromValue(service.getNameType())));
+        body.setTill(new KerberosTime(System.currentTimeMillis() + ticketLifetimeMillis));
+        body.setNonce(nonce());
+        body.setEtypes(implementedEncryptionTypes());
+
+        EncryptionKey sessionKey = new EncryptionKey(tgt.getSessionKeyType(), tgt.getSessionKey().getEncoded());
+
+        return tgsExchange(tgt, body, new PaDataEntry(PaDataType.FOR_USER, encodePaForUser(user, sessionKey)));
+
+    }
+
+    /**
+     * Obtains a ticket to the given service on behalf of the client of the evidence ticket
+     * (S4U2Proxy, constrained delegation).
+     *
+     * @param tgt TGT of the service
+     * @param evidenceTicket forwardable ticket of the user to the service, either from
+     *                       {@link #requestS4U2SelfTicket} or presented by the user
+     * @param spn target service/host, optionally followed by @REALM
+     * @return ticket to the target service with the user as client
+     */
+    public KerberosTicket requestProxyTicket(KerberosTicket tgt, KerberosTicket evidenceTicket, String spn) throws KrbException {
+
+        int realmSeparator = spn.lastIndexOf('@');
+        String serviceName = realmSeparator < 0 ? spn : spn.substring(0, realmSeparator);
+        String realm = realmSeparator < 0 ? tgt.getServer().getRealm() : spn.substring(realmSeparator + 1);
+
+        Tickets additionalTickets = new Tickets();
+        additionalTickets.add(KrbCodec.decode(evidenceTicket.getEncoded(), Ticket.class));
+
+        KdcReqBody body = new KdcReqBody();
+        body.setKdcOptions(options(KdcOption.FORWARDABLE, KdcOption.CNAME_IN_ADDL_TKT));
+        body.setRealm(realm);
+        body.setSname(new PrincipalName(Arrays.asList(serviceName.split("/")), NameType.NT_SRV_INST));
+        body.setTill(new KerberosTime(evidenceTicket.getEndTime().getTime()));
+        body.setNonce(nonce());
+        body.setEtypes(implementedEncryptionTypes());
+        body.setAdditionalTickets(additionalTickets);
+
+        return tgsExchange(tgt, body);
+
+    }
+
+    /**
+     * PA-FOR-USER ::= SEQUENCE { userName [0] PrincipalName, userRealm [1] Realm,
+     * cksum [2] Checksum, auth-package [3] KerberosString }
+     */
+    private static byte[] encodePaForUser(KerberosPrincipal user, EncryptionKey sessionKey) throws KrbException {
+
+        PrincipalName userName = toPrincipalName(user, NameType.NT_PRINCIPAL);
+        byte[] realm = user.getRealm().getBytes(StandardCharsets.UTF_8);
+        byte[] authPackage = AUTH_PACKAGE.getBytes(StandardCharsets.UTF_8);
+
+        // name type in little endian, the name components, the realm and the auth package, [MS-SFU] 2.2.1
+        ByteArrayOutputStream checksumInput = new ByteArrayOutputStream();
+        int nameType = userName.getNameType().getValue();
+        checksumInput.write(nameType);
+        checksumInput.write(nameType >>> 8);
+        checksumInput.write(nameType >>> 16);
+        checksumInput.write(nameType >>> 24);
+        for (String component : userName.getNameStrings()) {
+            byte[] bytes = component.getBytes(StandardCharsets.UTF_8);
+            checksumInput.write(bytes, 0, bytes.length);
+        }
+        checksumInput.write(realm, 0, realm.length);
+        checksumInput.write(authPackage, 0, authPackage.length);
+
+        CheckSum checksum = CheckSumHandler.checksumWithKey(CheckSumType.HMAC_MD5_ARCFOUR,
+                checksumInput.toByteArray(), sessionKey.getKeyData(), PA_FOR_USER_CHECKSUM);
+
+        return DerWriter.encode(DerWriter.SEQUENCE,
+                DerWriter.encode(DerWriter.context(0), KrbCodec.encode(userName)),
+                DerWriter.encode(DerWriter.context(1), DerWriter.encode(GENERAL_STRING, realm)),
+                DerWriter.encode(DerWriter.context(2), KrbCodec.encode(checksum)),
+                DerWriter.encode(DerWriter.context(3), DerWriter.encode(GENERAL_STRING, authPackage)));
+
+    }
+
+    private KerberosTicket tgsExchange(KerberosTicket ticket, KdcReqBody body, PaDataEntry... paData) throws KrbException {
+
+        EncryptionKey sessionKey = new EncryptionKey(ticket.getSessionKeyType(), ticket.getSessionKey().getEncoded());
+
+        CheckSumType checksumType = EncryptionHandler.getEncHandler(sessionKey.getKeyType()).checksumType();
+        CheckSum bodyChecksum = CheckSumHandler.checksumWithKey(checksumType, KrbCodec.encode(body),
+                sessionKey.getKeyData(), KeyUsage.TGS_REQ_AUTH_CKSUM);
+
+        long now = System.currentTimeMillis();
+
+        Authenticator authenticator = new Authenticator();
+        authenticator.setAuthenticatorVno(5);
+        authenticator.setCrealm(ticket.getClient().getRealm());
+        authenticator.setCname(toPrincipalName(ticket.getClient(), NameType.fromValue(ticket.getClient().getNameType())));
+        authenticator.setCksum(bodyChecksum);
+        authenticator.setCtime(new KerberosTime(now / 1000 * 1000));
+        authenticator.setCusec((int) (now % 1000) * 1000);
+
+        EncryptedData encryptedAuthenticator = EncryptionHandler.encrypt(
+                KrbCodec.encode(authenticator), sessionKey, KeyUsage.TGS_REQ_AUTH);
+
+        TgsReq tgsReq = new TgsReq();
+        tgsReq.setReqBody(body);
+        tgsReq.addPaData(new PaDataEntry(PaDataType.TGS_REQ, ApReqEncoder.encode(ticket.getEncoded(), encryptedAuthenticator)));
+        for (PaDataEntry paDataEntry : paData) {
+            tgsReq.addPaData(paDataEntry);
+        }
+
+        TgsRep tgsRep = exchange(tgsReq, TgsRep.class);
+
+        EncKdcRepPart encPart = decryptEncPart(tgsRep, sessionKey, KeyUsage.TGS_REP_ENCPART_SESSKEY);
+        verifyNonce(body, encPart);
+
+        return toKerberosTicket(tgsRep, encPart);
+
+    }
+
+    private <T extends KdcRep> T exchange(KdcReq request, Class<T> replyType) throws KrbException {
+
+        byte[] reply;
+        CompletableFuture<byte[]> future = transport.send(KrbCodec.encode(request));
+        try {
+            reply = future.get(exchangeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new KrbException("No KDC reply within " + exchangeTimeoutMillis + "ms", e);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new KrbException("Interrupted while waiting for KDC", e);
+        } catch (ExecutionException e) {
+            throw new KrbException("KDC exchange failed", e.getCause());
+        }
+
+        KrbMessage message;
+        try {
+            message = KrbCodec.decodeMessage(ByteBuffer.wrap(reply));
+        } catch (IOException e) {
+            throw new KrbException("Malformed KDC reply", e);
+        }
+
+        if (message instanceof KrbError) {
+            throw new KrbErrorException((KrbError) message);
+        }
+        if (!replyType.isInstance(message)) {
+            throw new KrbException("Unexpected KDC reply " + message.getMsgType());
+        }
+
+        return replyType.cast(message);
+
+    }
+
+    private static EncKdcRepPart decryptEncPart(KdcRep reply, EncryptionKey key, KeyUsage keyUsage) throws KrbException {
+        byte[] encoded = EncryptionHandler.decrypt(reply.getEncryptedEncPart(), key, keyUsage);
+        if (ENC_AS_REP_PART_TAG == (encoded[0] & 0xFF)) {
+            return KrbCodec.decode(encoded, EncAsRepPart.class);
+        }
+        return KrbCodec.decode(encoded, EncTgsRepPart.class);
+    }
+
+    private static void verifyNonce(KdcReqBody body, EncKdcRepPart encPart) throws KrbException {
+        if (body.getNonce() != encPart.getNonce()) {
+            throw new KrbException("Nonce in KDC reply does not match request");
+        }
+    }
+
+    private static KerberosTicket toKerberosTicket(KdcRep reply, EncKdcRepPart encPart) throws KrbException {
+
+        EncryptionKey sessionKey = encPart.getKey();
+
+        int ticketFlags = null == encPart.getFlags() ? 0 : encPart.getFlags().getFlags();
+        boolean[] flags = new boolean[32];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = 0 != (ticketFlags & (1 << (31 - i)));
+        }
+
+        return new KerberosTicket(
+                KrbCodec.encode(reply.getTicket()),
+                toKerberosPrincipal(reply.getCname(), reply.getCrealm()),
+                toKerberosPrincipal(encPart.getSname(), encPart.getSrealm()),
+                sessionKey.getKeyData(), sessionKey.getKeyType().getValue(), flags,
+                toDate(encPart.getAuthTime()), toDate(encPart.getStartTime()), toDate(encPart.getEndTime()),
+                toDate(encPart.getRenewTill()), null);
+
+    }
+
+    /**
+     * Keeps the newest key per encryption type, ordered by preference.
+     */
+    private static List<EncryptionKey> selectKeys(KerberosKey[] keys) {
+
+        Map<Integer, KerberosKey> newestKeys = new LinkedHashMap<>();
+        for (KerberosKey key : keys) {
+            KerberosKey newest = newestKeys.get(key.getKeyType());
+            if (null == newest || key.getVersionNumber() > newest.getVersionNumber()) {
+                newestKeys.put(key.getKeyType(), key);
+            }
+        }
+
+        List<EncryptionKey> selected = new ArrayList<>();
+        for (EncryptionType encryptionType : ENCRYPTION_TYPES) {
+            KerberosKey key = newestKeys.remove(encryptionType.getValue());
+            if (null != key) selected.add(toEncryptionKey(key));
+        }
+        for (KerberosKey key : newestKeys.values()) {
+            EncryptionType encryptionType = EncryptionType.fromValue(key.getKeyType());
+            if (null != encryptionType && EncryptionHandler.isImplemented(encryptionType)) {
+                selected.add(toEncryptionKey(key));
+            }
+        }
+
+        return selected;
+
+    }
+
+    private static EncryptionKey toEncryptionKey(KerberosKey key) {
+        return new EncryptionKey(key.getKeyType(), key.getEncoded(), key.getVersionNumber());
+    }
+
+    private static EncryptionKey findKey(List<EncryptionKey> keys, EncryptionType encryptionType) {
+        for (EncryptionKey key : keys) {
+            if (key.getKeyType() == encryptionType) return key;
+        }
+        return null;
+    }
+
+    private static List<EncryptionType> implementedEncryptionTypes() {
+        List<EncryptionType> encryptionTypes = new ArrayList<>();
+        for (EncryptionType encryptionType : ENCRYPTION_TYPES) {
+            if (EncryptionHandler.isImplemented(encryptionType)) encryptionTypes.add(encryptionType);
+        }
+        return encryptionTypes;
+    }
+
+    private static KdcOptions options(KdcOption... kdcOptions) {
+        KdcOptions options = new KdcOptions();
+        for (KdcOption kdcOption : kdcOptions) {
+            options.setFlag(kdcOption);
+        }
+        return options;
+    }
+
+    private static int nonce() {
+        return NONCES.nextInt() & Integer.MAX_VALUE;
+    }
+
+    private static PrincipalName toPrincipalName(KerberosPrincipal principal, NameType nameType) {
+        String name = principal.getName();
+        int realmSeparator = name.lastIndexOf('@');
+        String[] components = (realmSeparator < 0 ? name : name.substring(0, realmSeparator)).split("/");
+        return new PrincipalName(Arrays.asList(components), nameType);
+    }
+
+    private static KerberosPrincipal toKerberosPrincipal(PrincipalName principalName, String realm) {
+        StringBuilder name = new StringBuilder();
+        for (String component : principalName.getNameStrings()) {
+            if (name.length() > 0) name.append('/');
+            name.append(component);
+        }
+        return new KerberosPrincipal(name.append('@').append(realm).toString(), principalName.getNameType().getValue());
+    }
+
+    private static Date toDate(KerberosTime time) {
+        return null == time ? null : new Date(time.getTime());
+    }
+
+}
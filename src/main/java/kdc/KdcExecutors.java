@@ -0,0 +1,53 @@
+package kdc;
+
+import spnego.BlockingExecutors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background threads of the KDC transports, all of them daemon threads.
+ */
+final class KdcExecutors {
+
+    /**
+     * Connects, writes requests and reads replies; readers block for the lifetime of a connection.
+     * Virtual threads on Java 21.
+     */
+    static final ExecutorService IO = BlockingExecutors.newExecutor("kdc-io");
+
+    /** Fires hedged requests and timeouts, tasks must not block. */
+    static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private KdcExecutors() {
+        // default private
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("kdc-scheduler"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,25 @@
+package kdc;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries encoded Kerberos messages to a KDC and back.
+ *
+ * @see TcpKdcConnection
+ * @see HedgedKdcTransport
+ */
+public interface KdcTransport extends Closeable {
+
+    /**
+     * Sends the encoded KDC request.
+     *
+     * @param request encoded AS-REQ or TGS-REQ, without any framing
+     * @return future completed with the encoded reply, which may be a KRB-ERROR
+     */
+    CompletableFuture<byte[]> send(byte[] request);
+
+    @Override
+    void close();
+
+}
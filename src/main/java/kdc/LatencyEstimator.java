@@ -0,0 +1,84 @@
+package kdc;
+
+/**
+ * Smoothed round trip time of a KDC, computed the way TCP computes its retransmission
+ * timeout (RFC 6298): an exponentially weighted moving average of the samples and of
+ * their deviation.
+ *
+ * <p>
+ * Samples are folded in without locking; a lost update under contention only drops a sample.
+ * </p>
+ */
+final class LatencyEstimator {
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+
+    private volatile double smoothedRttMillis;
+    private volatile double rttVariationMillis;
+    private volatile boolean sampled;
+
+    /** Number of failures since the last successful exchange. */
+    private volatile int consecutiveFailures;
+
+    /**
+     * @param initialRttMillis assumed round trip time until the first sample
+     * @param minTimeoutMillis lower bound of {@link #getTimeoutMillis()}
+     * @param maxTimeoutMillis upper bound of {@link #getTimeoutMillis()}
+     */
+    LatencyEstimator(long initialRttMillis, long minTimeoutMillis, long maxTimeoutMillis) {
+        this.smoothedRttMillis = initialRttMillis;
+        this.rttVariationMillis = initialRttMillis / 2.0;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    void recordSuccess(long rttMillis) {
+        if (!sampled) {
+            smoothedRttMillis = rttMillis;
+            rttVariationMillis = rttMillis / 2.0;
+            sampled = true;
+        } else {
+            double smoothed = smoothedRttMillis;
+            rttVariationMillis = (1 - BETA) * rttVariationMillis + BETA * Math.abs(smoothed - rttMillis);
+            smoothedRttMillis = (1 - ALPHA) * smoothed + ALPHA * rttMillis;
+        }
+        consecutiveFailures = 0;
+    }
+
+    void recordFailure() {
+        consecutiveFailures++;
+    }
+
+    /**
+     * @return time after which an exchange with the KDC is given up, doubled for every recent failure
+     */
+    long getTimeoutMillis() {
+        long timeout = (long) (smoothedRttMillis + 4 * rttVariationMillis) << Math.min(consecutiveFailures, 6);
+        return Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, timeout));
+    }
+
+    /**
+     * @return time after which the same request is also sent to the next KDC
+     */
+    long getHedgeDelayMillis() {
+        return Math.min((long) (smoothedRttMillis + 2 * rttVariationMillis), getTimeoutMillis());
+    }
+
+    /**
+     * @return expected round trip time, penalized for recent failures; used to order KDCs
+     */
+    double getExpectedRttMillis() {
+        return smoothedRttMillis * (1 + consecutiveFailures);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyEstimator{srtt=" + (long) smoothedRttMillis + "ms, rttvar=" + (long) rttVariationMillis
+                + "ms, failures=" + consecutiveFailures + "}";
+    }
+
+}
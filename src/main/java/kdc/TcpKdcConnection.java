@@ -0,0 +1,296 @@
+package kdc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TCP connections to a single KDC, RFC 4120 section 7.2.2.
+ *
+ * <p>
+ * A connection carries one request at a time: MIT and Active Directory KDCs close the connection
+ * after their reply, so requests are never pipelined. Connections which the KDC keeps open after
+ * a reply are kept idle and reused, up to {@value #MAX_IDLE_CONNECTIONS} of them; concurrent
+ * requests open further connections. A request whose connection is lost before the reply is
+ * sent once more on a new connection, which covers a reused connection that the KDC closed
+ * just as the request was written.
+ * </p>
+ */
+public final class TcpKdcConnection implements KdcTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TcpKdcConnection.class);
+
+    /** Replies are rejected above this length; a set high bit of the prefix is reserved, RFC 5021. */
+    private static final int MAX_REPLY_LENGTH = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
+
+    /** Connections kept open for reuse after a reply. */
+    public static final int MAX_IDLE_CONNECTIONS = 4;
+
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+
+    /** Not a monitor, to avoid pinning virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Idle connections, most recently used first. Guarded by {@link #lock}. */
+    private final Deque<Channel> idle = new ArrayDeque<>();
+
+    /** Guarded by {@link #lock}. */
+    private final Set<Channel> channels = new HashSet<>();
+
+    /** Guarded by {@link #lock}. */
+    private boolean closed;
+
+    public TcpKdcConnection(InetSocketAddress address) {
+        this(address, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    public TcpKdcConnection(InetSocketAddress address, int connectTimeoutMillis) {
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(byte[] request) {
+
+        final Exchange exchange = new Exchange(request);
+        KdcExecutors.IO.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(exchange);
+            }
+        });
+        return exchange.reply;
+
+    }
+
+    /**
+     * Closes all connections, requests waiting for a reply fail.
+     */
+    @Override
+    public void close() {
+        List<Channel> channels;
+        lock.lock();
+        try {
+            closed = true;
+            channels = new ArrayList<>(this.channels);
+            this.channels.clear();
+            idle.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Channel channel : channels) {
+            channel.fail(new IOException("Connection to " + address + " closed"), false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TcpKdcConnection{" + address + "}";
+    }
+
+    private void dispatch(Exchange exchange) {
+
+        if (exchange.reply.isDone()) return; // timed out or answered by another KDC meanwhile
+
+        Channel channel = null;
+
+        lock.lock();
+        try {
+            // a resent exchange already failed on a connection, possibly a stale idle one
+            if (!closed && !exchange.resent) {
+                channel = idle.pollFirst();
+                if (null != channel) channel.exchange = exchange;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (null == channel) {
+            try {
+                channel = new Channel(connect());
+            } catch (IOException e) {
+                exchange.reply.completeExceptionally(e);
+                return;
+            }
+            lock.lock();
+            try {
+                if (closed) {
+                    channel.closeSocket();
+                    exchange.reply.completeExceptionally(new IOException("Connection to " + address + " closed"));
+                    return;
+                }
+                channel.exchange = exchange;
+                channels.add(channel);
+            } finally {
+                lock.unlock();
+            }
+            KdcExecutors.IO.execute(channel);
+        }
+
+        try {
+            channel.write(exchange);
+        } catch (IOException e) {
+            channel.fail(e, true);
+        }
+
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            // resolved on every connect so that KDC address changes are picked up
+            socket.connect(address.isUnresolved() ? new InetSocketAddress(address.getHostString(), address.getPort()) : address,
+                    connectTimeoutMillis);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static final class Exchange {
+
+        private final byte[] request;
+        private final CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        private boolean resent;
+
+        private Exchange(byte[] request) {
+            this.request = request;
+        }
+
+    }
+
+    private final class Channel implements Runnable {
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        /** Exchange waiting for its reply, null while idle. Guarded by {@link #lock}. */
+        private Exchange exchange;
+
+        /** Guarded by {@link #lock}. */
+        private boolean failed;
+
+        private Channel(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Writes the request of the exchange assigned to this channel.
+         */
+        private void write(Exchange exchange) throws IOException {
+            out.writeInt(exchange.request.length);
+            out.write(exchange.request);
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_REPLY_LENGTH) {
+                        throw new IOException("Invalid reply length " + length + " from " + address);
+                    }
+                    byte[] reply = new byte[length];
+                    in.readFully(reply);
+
+                    Exchange exchange;
+                    boolean reuse;
+                    lock.lock();
+                    try {
+                        exchange = this.exchange;
+                        this.exchange = null;
+                        reuse = null != exchange && !closed && idle.size() < MAX_IDLE_CONNECTIONS;
+                        if (reuse) idle.addFirst(this);
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (null == exchange) {
+                        throw new IOException("Unexpected reply from " + address);
+                    }
+                    exchange.reply.complete(reply);
+                    if (!reuse) {
+                        fail(new IOException("Connection to " + address + " not reused"), false);
+                        return;
+                    }
+
+                }
+            } catch (EOFException e) {
+                fail(new IOException("Connection closed by " + address), true);
+            } catch (IOException e) {
+                fail(e, true);
+            }
+        }
+
+        /**
+         * Closes this channel; its exchange, if any, is sent once more if {@code resend} is set
+         * and fails otherwise.
+         */
+        private void fail(IOException cause, boolean resend) {
+
+            Exchange exchange;
+            lock.lock();
+            try {
+                if (failed) return;
+                failed = true;
+                idle.remove(this);
+                channels.remove(this);
+                exchange = this.exchange;
+                this.exchange = null;
+            } finally {
+                lock.unlock();
+            }
+
+            closeSocket();
+
+            if (null == exchange) return;
+            if (resend && !exchange.resent) {
+                exchange.resent = true;
+                dispatch(exchange);
+            } else {
+                exchange.reply.completeExceptionally(cause);
+            }
+
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.trace("Failed to close connection to " + address, e);
+            }
+        }
+
+    }
+
+}
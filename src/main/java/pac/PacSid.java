@@ -119,6 +119,32 @@ public class PacSid {
         return convertSidToStringSid(getBytes());
     }
 
+    /**
+     * Appends the same form as {@link #toHumanReadableString()} without copying the SID.
+     */
+    public StringBuilder appendHumanReadable(StringBuilder builder) {
+        builder.append("S-").append(revision & 0xFF).append('-');
+
+        long identifierAuthority = 0;
+        for (byte authorityByte : authority) {
+            identifierAuthority = identifierAuthority << 8 | (authorityByte & 0xFF);
+        }
+        if (identifierAuthority < 1L << 32) {
+            builder.append(identifierAuthority);
+        } else {
+            builder.append("0x").append(Long.toHexString(identifierAuthority).toUpperCase());
+        }
+
+        // little-endian sub authorities
+        for (int offset = 0; offset < subs.length; offset += 4) {
+            long subAuthority = (subs[offset] & 0xFF) | (subs[offset + 1] & 0xFF) << 8
+                    | (subs[offset + 2] & 0xFF) << 16 | (long) (subs[offset + 3] & 0xFF) << 24;
+            builder.append('-').append(subAuthority);
+        }
+
+        return builder;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
 
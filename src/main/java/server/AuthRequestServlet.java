@@ -0,0 +1,115 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spnego.Constants;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Answers authentication sub-requests of a reverse proxy, e.g. nginx {@code auth_request}.
+ *
+ * <p>
+ * Only the {@code Authorization} header is read. A valid Negotiate token is answered with
+ * {@code 200} and the identity in the headers {@value #USER_HEADER}, {@value #UPN_HEADER} and
+ * {@value #GROUPS_HEADER}, anything else with {@code 401 WWW-Authenticate: Negotiate}; neither
+ * has a body. Header values are computed once per token, see {@link IdentityHeaderCache}.
+ * </p>
+ *
+ * <p>
+ * Init parameters:
+ * </p>
+ * <ul>
+ *     <li>{@code spnego.principal} - service principal, e.g. HTTP/host@REALM</li>
+ *     <li>{@code spnego.keytab} - keytab of the service principal</li>
+ *     <li>{@code spnego.cache.size} - maximum number of cached tokens, 10000 by default</li>
+ * </ul>
+ */
+public class AuthRequestServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthRequestServlet.class);
+
+    public static final String USER_HEADER = IdentityHeaderCache.USER_HEADER;
+
+    /** Kerberos principal name of the client, user@REALM. */
+    public static final String UPN_HEADER = IdentityHeaderCache.UPN_HEADER;
+
+    /** Comma separated group SIDs of the client. */
+    public static final String GROUPS_HEADER = IdentityHeaderCache.GROUPS_HEADER;
+
+    /** Created in init, not serialized. */
+    private transient IdentityHeaderCache identityHeaders;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+
+        super.init(config);
+
+        String principal = config.getInitParameter("spnego.principal");
+        String keyTab = config.getInitParameter("spnego.keytab");
+        String cacheSize = config.getInitParameter("spnego.cache.size");
+
+        if (null == principal || null == keyTab) {
+            throw new ServletException("spnego.principal and spnego.keytab are required");
+        }
+
+        SpnegoAcceptor acceptor;
+        try {
+            acceptor = SpnegoAcceptor.forKeyTab(principal, keyTab);
+        } catch (RuntimeException e) {
+            throw new ServletException("Failed to log in as " + principal, e);
+        }
+
+        identityHeaders = new IdentityHeaderCache(acceptor, null == cacheSize
+                ? IdentityHeaderCache.DEFAULT_MAXIMUM_SIZE : Integer.parseInt(cacheSize.trim()));
+
+    }
+
+    /**
+     * Handles every method, proxies send sub-requests with the method of the original request.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        response.setContentLength(0);
+
+        String authorization = request.getHeader(Constants.AUTHZ_HEADER);
+        if (null == authorization) {
+            challenge(response);
+            return;
+        }
+
+        IdentityHeaderCache.IdentityHeaders headers;
+        try {
+            headers = identityHeaders.get(authorization);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            LOGGER.debug("Rejected authorization header", e.getCause());
+            challenge(response);
+            return;
+        }
+
+        response.setHeader(USER_HEADER, headers.user);
+        response.setHeader(UPN_HEADER, headers.upn);
+        response.setHeader(GROUPS_HEADER, headers.groups);
+        response.setStatus(HttpServletResponse.SC_OK);
+
+    }
+
+    private static void challenge(HttpServletResponse response) {
+        response.setHeader(Constants.AUTHN_HEADER, Constants.NEGOTIATE_HEADER);
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+
+}
@@ -0,0 +1,374 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spnego.Kerb4JException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates tokens over a length-prefixed binary protocol, for clients which should not have to
+ * speak HTTP and Base64, e.g. proxies written in other languages.
+ *
+ * <p>
+ * All integers are big-endian. A request frame is
+ * </p>
+ * <pre>
+ * u32 length, u64 correlationId, length - 8 bytes token
+ * </pre>
+ * <p>
+ * the token being the raw SPNEGO or Kerberos token. A response frame is
+ * </p>
+ * <pre>
+ * u32 length, u64 correlationId, u8 status
+ * status {@value #STATUS_OK}: u16 length, UTF-8 principal name, u64 expiration time in milliseconds,
+ *                             group SIDs as in {@link GroupSids}
+ * </pre>
+ * <p>
+ * Any number of requests may be sent on a connection without waiting for responses; responses
+ * are sent as soon as their token has been validated, not necessarily in request order. Once
+ * {@value #MAX_IN_FLIGHT} requests of a connection are being validated or have responses the
+ * client has not taken yet, no more are read from it until responses have been written, so a
+ * client which does not read its responses cannot make them pile up. Frames longer than
+ * {@value #MAX_FRAME_LENGTH} bytes close the connection.
+ * </p>
+ *
+ * <p>
+ * A single thread serves all connections, tokens are validated on the given executor.
+ * </p>
+ */
+public final class BinaryValidationServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryValidationServer.class);
+
+    public static final byte STATUS_OK = 0;
+
+    /** The token is invalid. */
+    public static final byte STATUS_REJECTED = 1;
+
+    /** The token could not be validated or its PAC not be decoded, e.g. because the server is overloaded. */
+    public static final byte STATUS_ERROR = 2;
+
+    /** Maximum frame length without the length field, Kerberos tokens with a large PAC fit. */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    /** Maximum number of requests of a connection being validated or with a response not yet written. */
+    public static final int MAX_IN_FLIGHT = 256;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private static final int CORRELATION_ID_LENGTH = 8;
+
+    private final SpnegoAcceptor acceptor;
+    private final Executor executor;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread selectorThread;
+
+    /** Connections with responses to send, processed by the selector thread. */
+    private final Queue<Connection> responded = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    private BinaryValidationServer(SpnegoAcceptor acceptor, Executor executor, InetSocketAddress address)
+            throws IOException {
+        this.acceptor = acceptor;
+        this.executor = executor;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                select();
+            }
+        }, "spnego-binary-" + serverChannel.socket().getLocalPort());
+        this.selectorThread.setDaemon(true);
+    }
+
+    /**
+     * Starts a server validating tokens with the given acceptor.
+     *
+     * @param address address to listen on, usually a loopback address
+     * @param executor runs the validations, should be bounded
+     */
+    public static BinaryValidationServer start(InetSocketAddress address, SpnegoAcceptor acceptor, Executor executor)
+            throws IOException {
+        BinaryValidationServer server = new BinaryValidationServer(acceptor, executor, address);
+        server.selectorThread.start();
+        LOGGER.info("Validating binary tokens on {}", server.getAddress());
+        return server;
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Closes the server and all of its connections, responses not sent yet are dropped.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void select() {
+
+        try {
+
+            while (running) {
+
+                selector.select();
+
+                Connection connection;
+                while (null != (connection = responded.poll())) {
+                    try {
+                        connection.updateInterest();
+                    } catch (IOException e) {
+                        LOGGER.debug("Closing connection", e);
+                        connection.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    } catch (IOException e) {
+                        LOGGER.debug("Closing connection", e);
+                        connection.close();
+                    }
+                }
+
+            }
+
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Binary validation server failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while (null != (channel = serverChannel.accept())) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private static ByteBuffer response(long correlationId, SpnegoIdentity identity) throws Kerb4JException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeLong(correlationId);
+            out.writeByte(STATUS_OK);
+            out.writeUTF(identity.getName());
+            out.writeLong(identity.getExpirationTime());
+            GroupSids.write(out, identity.getGroupSids());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - HEADER_LENGTH);
+        return frame;
+    }
+
+    private static ByteBuffer response(long correlationId, byte status) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + CORRELATION_ID_LENGTH + 1);
+        frame.putInt(CORRELATION_ID_LENGTH + 1).putLong(correlationId).put(status);
+        frame.flip();
+        return frame;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close", e);
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        /** Received bytes not yet parsed into frames, in write mode. Selector thread only. */
+        private ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+        /** Requests dispatched whose response has not been written completely. */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+
+            parse();
+
+            if (inFlight.get() >= MAX_IN_FLIGHT) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+        }
+
+        /**
+         * Dispatches the complete frames received so far, up to the in-flight limit; the rest
+         * stays buffered until responses have been sent.
+         */
+        private void parse() throws IOException {
+
+            in.flip();
+            while (inFlight.get() < MAX_IN_FLIGHT && in.remaining() >= HEADER_LENGTH) {
+                int length = in.getInt(in.position());
+                if (length < CORRELATION_ID_LENGTH || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < HEADER_LENGTH + length) {
+                    if (in.capacity() < HEADER_LENGTH + length) {
+                        in = ByteBuffer.allocate(HEADER_LENGTH + length).put(in);
+                        in.flip();
+                    }
+                    break;
+                }
+                in.getInt();
+                long correlationId = in.getLong();
+                byte[] token = new byte[length - CORRELATION_ID_LENGTH];
+                in.get(token);
+                dispatch(correlationId, token);
+            }
+            in.compact();
+
+        }
+
+        private void dispatch(final long correlationId, final byte[] token) {
+            inFlight.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        validate(correlationId, token);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Validation rejected", e);
+                respond(response(correlationId, STATUS_ERROR));
+            }
+        }
+
+        private void validate(long correlationId, byte[] token) {
+            SpnegoIdentity identity;
+            try {
+                identity = acceptor.accept(token);
+            } catch (Exception e) {
+                LOGGER.debug("Rejected token", e);
+                respond(response(correlationId, STATUS_REJECTED));
+                return;
+            }
+            ByteBuffer frame;
+            try {
+                frame = response(correlationId, identity);
+            } catch (Kerb4JException e) {
+                // the token is valid, but its groups are unknown
+                frame = response(correlationId, STATUS_ERROR);
+            }
+            respond(frame);
+        }
+
+        /**
+         * Queues a response, from any thread. The request stays in flight until the response
+         * has been written.
+         */
+        private void respond(ByteBuffer frame) {
+            out.offer(frame);
+            responded.offer(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes queued responses until the socket buffer is full.
+         */
+        private void write() throws IOException {
+            ByteBuffer frame;
+            while (null != (frame = out.peek())) {
+                channel.write(frame);
+                if (frame.hasRemaining()) return;
+                out.poll();
+                inFlight.decrementAndGet();
+            }
+            updateInterest();
+        }
+
+        /**
+         * Writes while responses are queued and reads while the connection is below its limit,
+         * after dispatching frames buffered when the limit was reached. Selector thread only.
+         */
+        private void updateInterest() throws IOException {
+            if (!key.isValid()) return;
+            if (in.position() > 0 && inFlight.get() < MAX_IN_FLIGHT) parse();
+            int interestOps = 0;
+            if (!out.isEmpty()) interestOps |= SelectionKey.OP_WRITE;
+            if (inFlight.get() < MAX_IN_FLIGHT) interestOps |= SelectionKey.OP_READ;
+            key.interestOps(interestOps);
+        }
+
+        private void close() {
+            key.cancel();
+            closeQuietly(channel);
+            out.clear();
+        }
+
+    }
+
+}
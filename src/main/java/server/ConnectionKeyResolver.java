@@ -0,0 +1,37 @@
+package server;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Identifies the connection a request was received on, so that an identity can be bound to
+ * the connection like IIS does for Negotiate.
+ *
+ * <p>
+ * The key must be supplied by the container, e.g. a connection id, and must never be reused
+ * for another connection. Addresses are no such key: a client port is reused as soon as the
+ * server has closed the connection, and behind NAT or on a terminal server another user may
+ * get the same address and port. Resolvers able to observe connection closes should report
+ * them to the listener, which ends the binding right away instead of after the idle timeout.
+ * Must not be used behind a proxy which forwards the requests of several clients on one
+ * connection.
+ * </p>
+ */
+public interface ConnectionKeyResolver {
+
+    /**
+     * @return key of the connection of the request, or null if it is not known
+     */
+    Object getConnectionKey(HttpServletRequest request);
+
+    /**
+     * Registers the listener to be notified when a connection closes, ignored by resolvers
+     * which cannot observe closes.
+     */
+    default void setCloseListener(CloseListener listener) {
+    }
+
+    interface CloseListener {
+        void connectionClosed(Object connectionKey);
+    }
+
+}
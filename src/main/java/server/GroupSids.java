@@ -0,0 +1,65 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of group SIDs: a table of the few domain SIDs they share, followed by
+ * each group as index of its domain SID and RID.
+ *
+ * <pre>
+ * u16 domainCount, domainCount * (u16 length, UTF-8 domain SID),
+ * u16 groupCount, groupCount * (u16 domainIndex, u32 RID)
+ * </pre>
+ */
+final class GroupSids {
+
+    private GroupSids() {
+    }
+
+    static void write(DataOutputStream out, List<String> groupSids) throws IOException {
+
+        Map<String, Integer> domains = new LinkedHashMap<>();
+        List<int[]> groups = new ArrayList<>(groupSids.size());
+        for (String groupSid : groupSids) {
+            int ridSeparator = groupSid.lastIndexOf('-');
+            String domain = groupSid.substring(0, ridSeparator);
+            Integer domainIndex = domains.get(domain);
+            if (null == domainIndex) {
+                domainIndex = domains.size();
+                domains.put(domain, domainIndex);
+            }
+            groups.add(new int[]{domainIndex, (int) Long.parseLong(groupSid.substring(ridSeparator + 1))});
+        }
+
+        out.writeShort(domains.size());
+        for (String domain : domains.keySet()) {
+            out.writeUTF(domain);
+        }
+        out.writeShort(groups.size());
+        for (int[] group : groups) {
+            out.writeShort(group[0]);
+            out.writeInt(group[1]);
+        }
+
+    }
+
+    static List<String> read(DataInputStream in) throws IOException {
+        String[] domains = new String[in.readUnsignedShort()];
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = in.readUTF();
+        }
+        int groupCount = in.readUnsignedShort();
+        List<String> groupSids = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groupSids.add(domains[in.readUnsignedShort()] + '-' + (in.readInt() & 0xFFFFFFFFL));
+        }
+        return groupSids;
+    }
+
+}
@@ -0,0 +1,122 @@
+package server;
+
+import spnego.ConcurrentTtlCache;
+import spnego.Constants;
+import spnego.Kerb4JException;
+import spnego.SpnegoAuthScheme;
+import spnego.SpnegoInitToken;
+import spnego.SpnegoProvider;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates Authorization headers and formats the identity as response headers for proxies,
+ * once per header.
+ *
+ * <p>
+ * Proxies forward the same header on every request of a client, so header values are served
+ * from the cache without presenting the token to the acceptor's replay cache again. Concurrent
+ * requests with the same header share one validation. An entry expires when its authenticator
+ * would be rejected as outside the clock skew anyway, five minutes after the client created
+ * it, so a captured header is not usable any longer than the replay window.
+ * </p>
+ */
+final class IdentityHeaderCache {
+
+    static final String USER_HEADER = "X-Auth-User";
+
+    /** Kerberos principal name of the client, user@REALM. */
+    static final String UPN_HEADER = "X-Auth-UPN";
+
+    /** Comma separated group SIDs of the client. */
+    static final String GROUPS_HEADER = "X-Auth-Groups";
+
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** Maximum clock skew of Kerberos, beyond which authenticators are rejected. */
+    private static final long MAX_CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /** Headers not presented for this long are dropped even if still valid. */
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final SpnegoAcceptor acceptor;
+
+    /** Identity headers by Authorization header. */
+    private final ConcurrentTtlCache<String, IdentityHeaders> cache;
+
+    IdentityHeaderCache(SpnegoAcceptor acceptor, int maximumSize) {
+        this.acceptor = acceptor;
+        this.cache = new ConcurrentTtlCache<>(maximumSize, Long.MAX_VALUE, IDLE_MILLIS,
+                new ConcurrentTtlCache.Expiry<IdentityHeaders>() {
+                    @Override
+                    public long getExpirationTime(IdentityHeaders headers) {
+                        return headers.expirationTime;
+                    }
+                }, null);
+    }
+
+    /**
+     * @param authorization Authorization header
+     * @return identity headers of the client
+     * @throws ExecutionException if the header holds no valid Negotiate token, or with an
+     *                            {@link IllegalStateException} if the token is valid but its PAC
+     *                            could not be decoded; neither is cached
+     */
+    IdentityHeaders get(String authorization) throws ExecutionException {
+        return cache.get(authorization, new ConcurrentTtlCache.Loader<String, IdentityHeaders>() {
+            @Override
+            public IdentityHeaders load(String authorization) throws Exception {
+                return validate(authorization);
+            }
+        });
+    }
+
+    private IdentityHeaders validate(String authorization) throws Exception {
+
+        SpnegoAuthScheme authScheme = SpnegoProvider.getAuthScheme(authorization);
+        if (null == authScheme || !Constants.NEGOTIATE_HEADER.equals(authScheme.getScheme())) {
+            throw new IllegalArgumentException("Not a Negotiate header");
+        }
+
+        byte[] token = authScheme.getToken();
+        SpnegoIdentity identity = acceptor.accept(token);
+        long authenticatorTime = new SpnegoInitToken(token).getSpnegoKerberosMechToken()
+                .getAuthenticatorTime(acceptor.getSpnegoClient().getKerberosKeys());
+
+        List<String> groupSids;
+        try {
+            groupSids = identity.getGroupSids();
+        } catch (Kerb4JException e) {
+            // not a rejection of the client, and no headers without its groups
+            throw new IllegalStateException("PAC of " + identity.getName() + " could not be decoded", e);
+        }
+        StringBuilder groups = new StringBuilder(groupSids.size() * 48);
+        for (String groupSid : groupSids) {
+            if (groups.length() > 0) groups.append(',');
+            groups.append(groupSid);
+        }
+
+        return new IdentityHeaders(identity.getUserName(), identity.getName(), groups.toString(),
+                Math.min(identity.getExpirationTime(), authenticatorTime + MAX_CLOCK_SKEW_MILLIS));
+
+    }
+
+    static final class IdentityHeaders {
+
+        final String user;
+        final String upn;
+        final String groups;
+        final long expirationTime;
+
+        private IdentityHeaders(String user, String upn, String groups, long expirationTime) {
+            this.user = user;
+            this.upn = upn;
+            this.groups = groups;
+            this.expirationTime = expirationTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package server;
+
+import base64.Base64Codec;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Issues and verifies HMAC-SHA256 signed session tokens carrying the name and the group SIDs of
+ * an authenticated client, so that requests after the first need a single MAC instead of a
+ * full SPNEGO validation.
+ *
+ * <p>
+ * Group SIDs are stored in the compact form of {@link GroupSids}, six bytes or eight Base64
+ * characters per group, so that a token for a client in 100 groups takes about 1 KB; for clients
+ * in several hundred groups it exceeds what browsers accept as cookie. Tokens name the key they
+ * are signed with: keys are rotated by adding the new key, signing with it via
+ * {@link #useKey(String)} and removing the old key once the tokens signed with it have expired.
+ * </p>
+ */
+public final class SessionTokenCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** Minimum key length, the output length of the MAC. */
+    private static final int MIN_KEY_LENGTH = 32;
+
+    private static final char SEPARATOR = '.';
+
+    private final ConcurrentMap<String, SigningKey> keys = new ConcurrentHashMap<>();
+
+    private volatile SigningKey signingKey;
+
+    /**
+     * @param keyId identifies the key in tokens, at most 255 bytes
+     * @param secret key of at least 32 bytes
+     */
+    public SessionTokenCodec(String keyId, byte[] secret) {
+        addKey(keyId, secret);
+        useKey(keyId);
+    }
+
+    /**
+     * Adds a key tokens are accepted with.
+     */
+    public void addKey(String keyId, byte[] secret) {
+        if (keyId.getBytes(StandardCharsets.UTF_8).length > 255) {
+            throw new IllegalArgumentException("Key id too long: " + keyId);
+        }
+        if (secret.length < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key must have at least " + MIN_KEY_LENGTH + " bytes");
+        }
+        keys.put(keyId, new SigningKey(keyId, new SecretKeySpec(secret.clone(), MAC_ALGORITHM)));
+    }
+
+    /**
+     * Signs new tokens with the given, previously added, key.
+     */
+    public void useKey(String keyId) {
+        SigningKey key = keys.get(keyId);
+        if (null == key) throw new IllegalArgumentException("Unknown key " + keyId);
+        signingKey = key;
+    }
+
+    /**
+     * Stops accepting tokens signed with the given key. The key new tokens are signed with
+     * cannot be removed.
+     */
+    public void removeKey(String keyId) {
+        if (signingKey.keyId.equals(keyId)) throw new IllegalArgumentException("Key " + keyId + " is in use");
+        keys.remove(keyId);
+    }
+
+    /**
+     * @param name principal name of the client
+     * @param groupSids group SIDs of the client
+     * @param expirationTime time after which the token is rejected, in milliseconds
+     * @return signed token, consisting of Base64 and '.' only
+     */
+    public String issue(String name, List<String> groupSids, long expirationTime) {
+
+        SigningKey key = signingKey;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + 8 * groupSids.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(key.keyId);
+            out.writeLong(expirationTime);
+            out.writeUTF(name);
+            GroupSids.write(out, groupSids);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] payload = bytes.toByteArray();
+        return Base64Codec.encode(payload) + SEPARATOR + Base64Codec.encode(key.mac(payload));
+
+    }
+
+    /**
+     * Returns the identity in the given token, or null if the token is malformed, signed with an
+     * unknown key, tampered with or expired.
+     */
+    public SpnegoIdentity verify(String token) {
+
+        int separator = token.indexOf(SEPARATOR);
+        if (separator < 0) return null;
+
+        byte[] payload;
+        byte[] mac;
+        try {
+            payload = Base64Codec.decode(token.substring(0, separator));
+            mac = Base64Codec.decode(token.substring(separator + 1));
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+
+            if (VERSION != in.readByte()) return null;
+
+            SigningKey key = keys.get(in.readUTF());
+            if (null == key || !MessageDigest.isEqual(key.mac(payload), mac)) return null;
+
+            long expirationTime = in.readLong();
+            if (expirationTime <= System.currentTimeMillis()) return null;
+
+            String name = in.readUTF();
+            List<String> groupSids = GroupSids.read(in);
+
+            return new SpnegoIdentity(name, groupSids, expirationTime);
+
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+    }
+
+    private static final class SigningKey {
+
+        private final String keyId;
+        private final SecretKeySpec secret;
+
+        /** Mac instances are not thread-safe and costly to look up. */
+        private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+        private SigningKey(String keyId, SecretKeySpec secret) {
+            this.keyId = keyId;
+            this.secret = secret;
+        }
+
+        private byte[] mac(byte[] data) {
+            Mac mac = macs.get();
+            try {
+                if (null == mac) {
+                    mac = Mac.getInstance(MAC_ALGORITHM);
+                    mac.init(secret);
+                    macs.set(mac);
+                }
+                return mac.doFinal(data);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,218 @@
+package server;
+
+import client.SpnegoClient;
+import client.SpnegoContext;
+import org.ietf.jgss.GSSException;
+import spnego.ConcurrentTtlCache;
+import spnego.Kerb4JException;
+import spnego.SpnegoInitToken;
+
+import javax.security.auth.kerberos.KerberosKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.PrivilegedActionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
+
+/**
+ * Validates SPNEGO tokens with the keys of a service principal.
+ *
+ * <p>
+ * One acceptor exists per principal and keytab, see {@link #forKeyTab(String, String)}, so the
+ * login and the acceptor credential are shared by everything validating tokens in the process.
+ * </p>
+ */
+public final class SpnegoAcceptor {
+
+    /** Acceptors by principal and keytab, never evicted; concurrent first uses share one login. */
+    private static final ConcurrentTtlCache<List<String>, SpnegoAcceptor> ACCEPTORS = new ConcurrentTtlCache<>(
+            Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, null, null);
+
+    /** Validates batches, shared by all acceptors. */
+    private static final ForkJoinPool BATCH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("spnego-batch-" + thread.getPoolIndex());
+                    return thread;
+                }
+            }, null, true);
+
+    private final SpnegoClient spnegoClient;
+
+    SpnegoAcceptor(SpnegoClient spnegoClient) {
+        this.spnegoClient = spnegoClient;
+    }
+
+    /**
+     * Returns the shared acceptor of the given service principal, logging in on first use.
+     *
+     * @param principal service principal, e.g. HTTP/host@REALM
+     * @param keyTabLocation keytab of the service principal
+     */
+    public static SpnegoAcceptor forKeyTab(final String principal, final String keyTabLocation) {
+        try {
+            // the login runs outside of any map lock, acceptors of other principals are not held up
+            return ACCEPTORS.get(Arrays.asList(principal, keyTabLocation), new ConcurrentTtlCache.Loader<List<String>, SpnegoAcceptor>() {
+                @Override
+                public SpnegoAcceptor load(List<String> key) {
+                    SpnegoClient spnegoClient = SpnegoClient.loginWithKeyTab(principal, keyTabLocation, true);
+                    spnegoClient.getSubject();
+                    return new SpnegoAcceptor(spnegoClient);
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public SpnegoClient getSpnegoClient() {
+        return spnegoClient;
+    }
+
+    /**
+     * Validates the given token.
+     *
+     * @param token SPNEGO or Kerberos token sent by the client
+     * @return authenticated client
+     * @throws Kerb4JException if the token is invalid or requires another round trip
+     */
+    public SpnegoIdentity accept(byte[] token) throws Kerb4JException {
+        return accept(token, new TicketPac(token, spnegoClient, null));
+    }
+
+    private SpnegoIdentity accept(byte[] token, TicketPac ticketPac) throws Kerb4JException {
+
+        SpnegoContext context;
+        try {
+            context = spnegoClient.createAcceptContext();
+        } catch (PrivilegedActionException e) {
+            throw new Kerb4JException("Failed to create accept context", e.getException());
+        } catch (GSSException e) {
+            throw new Kerb4JException("Failed to create accept context", e);
+        }
+
+        try {
+            byte[] responseToken = context.acceptToken(token);
+            if (!context.isEstablished()) {
+                throw new Kerb4JException("SPNEGO context not established after a single token");
+            }
+            // the lifetime of an accepted JGSS context is always indefinite, the ticket knows its end
+            return new SpnegoIdentity(context.getSrcName().toString(), responseToken, ticketPac, ticketPac.getEndTime());
+        } catch (GSSException e) {
+            throw new Kerb4JException("Invalid token: " + e.getMessage(), e);
+        } finally {
+            try {
+                context.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+
+    }
+
+    /**
+     * Validates the given tokens in parallel on a dedicated fork-join pool.
+     *
+     * <p>
+     * Identical tokens are validated once and share their future; a second validation would
+     * be rejected as a replay. Tokens presenting the same ticket share the decrypted PAC, and the
+     * keys of the acceptor are looked up once for the batch.
+     * </p>
+     *
+     * @param tokens SPNEGO or Kerberos tokens
+     * @return one future per token, in the order of the tokens, each completed as soon as its
+     * token has been validated
+     */
+    public List<CompletableFuture<SpnegoIdentity>> acceptBatch(List<byte[]> tokens) {
+
+        KerberosKey[] keys = null;
+        try {
+            keys = spnegoClient.getKerberosKeys();
+        } catch (RuntimeException e) {
+            // looked up again if a PAC is read
+        }
+
+        Map<ByteBuffer, CompletableFuture<SpnegoIdentity>> futuresByToken = new HashMap<>();
+        Map<ByteBuffer, TicketPac> pacsByTicket = new HashMap<>();
+        List<CompletableFuture<SpnegoIdentity>> futures = new ArrayList<>(tokens.size());
+
+        for (final byte[] token : tokens) {
+
+            ByteBuffer tokenKey = ByteBuffer.wrap(token);
+            CompletableFuture<SpnegoIdentity> future = futuresByToken.get(tokenKey);
+
+            if (null == future) {
+
+                ByteBuffer ticketKey = getTicketCipher(token);
+                TicketPac ticketPac = null == ticketKey ? null : pacsByTicket.get(ticketKey);
+                if (null == ticketPac) {
+                    ticketPac = new TicketPac(token, spnegoClient, keys);
+                    if (null != ticketKey) pacsByTicket.put(ticketKey, ticketPac);
+                }
+
+                final TicketPac sharedPac = ticketPac;
+                future = CompletableFuture.supplyAsync(new Supplier<SpnegoIdentity>() {
+                    @Override
+                    public SpnegoIdentity get() {
+                        try {
+                            return accept(token, sharedPac);
+                        } catch (Kerb4JException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, BATCH_POOL);
+                futuresByToken.put(tokenKey, future);
+
+            }
+
+            futures.add(future);
+
+        }
+
+        return futures;
+
+    }
+
+    /**
+     * Returns the encrypted part of the ticket in the token, or null if the token cannot be parsed.
+     */
+    private static ByteBuffer getTicketCipher(byte[] token) {
+        try {
+            return ByteBuffer.wrap(new SpnegoInitToken(token).getSpnegoKerberosMechToken()
+                    .getApRequest().getTicket().getEncryptedEncPart().getCipher());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Validates the given token on the given executor.
+     */
+    public CompletableFuture<SpnegoIdentity> acceptAsync(final byte[] token, Executor executor) {
+        return CompletableFuture.supplyAsync(new Supplier<SpnegoIdentity>() {
+            @Override
+            public SpnegoIdentity get() {
+                try {
+                    return accept(token);
+                } catch (Kerb4JException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+}
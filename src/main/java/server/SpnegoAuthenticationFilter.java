@@ -0,0 +1,401 @@
+package server;
+
+import base64.Base64Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spnego.BlockingExecutors;
+import spnego.ConcurrentTtlCache;
+import spnego.Constants;
+import spnego.Kerb4JException;
+import spnego.SpnegoAuthScheme;
+import spnego.SpnegoProvider;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Authenticates requests with the SPNEGO token of their {@code Authorization} header.
+ *
+ * <p>
+ * Requests without a Negotiate token or with an invalid one are answered with
+ * {@code 401 WWW-Authenticate: Negotiate}. Authenticated requests reach the rest of the chain
+ * with the {@link SpnegoIdentity} as request attribute {@link #IDENTITY_ATTRIBUTE} and as user
+ * principal.
+ * </p>
+ *
+ * <p>
+ * If the request supports asynchronous processing, the token is validated on a thread of the
+ * filter and the request is dispatched again once it has been validated, so that container
+ * threads do not wait for the acceptor. The filter then has to be mapped for the
+ * {@code ASYNC} dispatcher as well.
+ * </p>
+ *
+ * <p>
+ * Init parameters:
+ * </p>
+ * <ul>
+ *     <li>{@code spnego.principal} - service principal, e.g. HTTP/host@REALM</li>
+ *     <li>{@code spnego.keytab} - keytab of the service principal</li>
+ *     <li>{@code spnego.async} - validate asynchronously if the request supports it, true by default</li>
+ *     <li>{@code spnego.threads} - maximum number of tokens validated asynchronously at a time, number of
+ *     processors by default; on Java 21 each validation runs on a virtual thread</li>
+ *     <li>{@code spnego.session.keys} - comma separated keyId:Base64 key pairs, enables session cookies;
+ *     the first key signs, the others are only accepted</li>
+ *     <li>{@code spnego.session.cookie} - name of the session cookie, {@value #DEFAULT_SESSION_COOKIE} by default</li>
+ *     <li>{@code spnego.session.lifetime} - maximum session lifetime in seconds, one hour by default;
+ *     sessions never outlive the ticket</li>
+ *     <li>{@code spnego.session.secure} - whether the session cookie is only sent over HTTPS, true by default;
+ *     set explicitly since behind a TLS terminating proxy the request itself is not secure</li>
+ *     <li>{@code spnego.connection} - name of a {@link ConnectionKeyResolver} class supplying container
+ *     connection ids, enables binding identities to connections</li>
+ *     <li>{@code spnego.connection.idle} - seconds a connection binding survives without requests, 5 by default;
+ *     must stay well below the keep-alive timeout of the container</li>
+ * </ul>
+ *
+ * <p>
+ * With session cookies enabled, a signed {@link SessionTokenCodec} token is set as cookie after
+ * the first successful validation, and later requests presenting it are authenticated by
+ * verifying its MAC instead of the SPNEGO token. Clients in so many groups that the cookie
+ * would exceed {@value #MAX_SESSION_COOKIE_LENGTH} bytes get no cookie and keep authenticating
+ * with SPNEGO, since browsers drop larger cookies.
+ * </p>
+ *
+ * <p>
+ * With connection binding enabled, the identity is bound to the connection the token arrived
+ * on, and later requests on that connection without an {@code Authorization} header are
+ * authenticated with it until the connection closes, as far as the {@link ConnectionKeyResolver}
+ * reports it, the ticket expires or the binding has been idle for too long. A new token on the connection replaces the binding, a rejected one removes it.
+ * </p>
+ */
+public class SpnegoAuthenticationFilter implements Filter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpnegoAuthenticationFilter.class);
+
+    public static final String IDENTITY_ATTRIBUTE = "server.SpnegoIdentity";
+
+    public static final String DEFAULT_SESSION_COOKIE = "SPNEGO_SESSION";
+
+    private static final long DEFAULT_SESSION_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Longest session cookie, name and value, below the 4 KB browsers accept including attributes. */
+    public static final int MAX_SESSION_COOKIE_LENGTH = 3584;
+
+    private static final long DEFAULT_CONNECTION_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final int MAX_CONNECTIONS = 100000;
+
+    private SpnegoAcceptor acceptor;
+
+    private boolean async;
+
+    private ExecutorService executor;
+
+    private SessionTokenCodec sessionTokenCodec;
+
+    private String sessionCookie;
+
+    private long sessionLifetimeMillis;
+
+    private boolean sessionSecure;
+
+    private ConnectionKeyResolver connectionKeyResolver;
+
+    private ConcurrentTtlCache<Object, SpnegoIdentity> connections;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+
+        String principal = filterConfig.getInitParameter("spnego.principal");
+        String keyTab = filterConfig.getInitParameter("spnego.keytab");
+        String asyncParameter = filterConfig.getInitParameter("spnego.async");
+        String threads = filterConfig.getInitParameter("spnego.threads");
+
+        if (null == principal || null == keyTab) {
+            throw new ServletException("spnego.principal and spnego.keytab are required");
+        }
+
+        try {
+            acceptor = SpnegoAcceptor.forKeyTab(principal, keyTab);
+        } catch (RuntimeException e) {
+            throw new ServletException("Failed to log in as " + principal, e);
+        }
+
+        String sessionKeys = filterConfig.getInitParameter("spnego.session.keys");
+        if (null != sessionKeys && !sessionKeys.trim().isEmpty()) {
+            for (String sessionKey : sessionKeys.split(",")) {
+                int separator = sessionKey.indexOf(':');
+                if (separator < 0) throw new ServletException("spnego.session.keys must be keyId:Base64 pairs");
+                String keyId = sessionKey.substring(0, separator).trim();
+                byte[] secret = Base64Codec.decode(sessionKey.substring(separator + 1).trim());
+                if (null == sessionTokenCodec) {
+                    sessionTokenCodec = new SessionTokenCodec(keyId, secret);
+                } else {
+                    sessionTokenCodec.addKey(keyId, secret);
+                }
+            }
+            String cookie = filterConfig.getInitParameter("spnego.session.cookie");
+            String lifetime = filterConfig.getInitParameter("spnego.session.lifetime");
+            sessionCookie = null == cookie ? DEFAULT_SESSION_COOKIE : cookie.trim();
+            sessionLifetimeMillis = null == lifetime
+                    ? DEFAULT_SESSION_LIFETIME_MILLIS : TimeUnit.SECONDS.toMillis(Long.parseLong(lifetime.trim()));
+            String secure = filterConfig.getInitParameter("spnego.session.secure");
+            sessionSecure = null == secure || Boolean.parseBoolean(secure.trim());
+        }
+
+        String connection = filterConfig.getInitParameter("spnego.connection");
+        if (null != connection && !connection.trim().isEmpty()) {
+            connectionKeyResolver = newConnectionKeyResolver(connection.trim());
+            String idle = filterConfig.getInitParameter("spnego.connection.idle");
+            connections = new ConcurrentTtlCache<>(MAX_CONNECTIONS, Long.MAX_VALUE,
+                    null == idle ? DEFAULT_CONNECTION_IDLE_MILLIS : TimeUnit.SECONDS.toMillis(Long.parseLong(idle.trim())),
+                    new ConcurrentTtlCache.Expiry<SpnegoIdentity>() {
+                        @Override
+                        public long getExpirationTime(SpnegoIdentity identity) {
+                            return identity.getExpirationTime();
+                        }
+                    }, null);
+            connectionKeyResolver.setCloseListener(new ConnectionKeyResolver.CloseListener() {
+                @Override
+                public void connectionClosed(Object connectionKey) {
+                    connections.invalidate(connectionKey);
+                }
+            });
+        }
+
+        async = null == asyncParameter || Boolean.parseBoolean(asyncParameter.trim());
+        if (async) {
+            executor = BlockingExecutors.newExecutor("spnego-filter",
+                    null == threads ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads.trim()));
+        }
+
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        final HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        // dispatched again after asynchronous validation
+        Object validated = request.getAttribute(IDENTITY_ATTRIBUTE);
+        if (DispatcherType.ASYNC == request.getDispatcherType() && validated instanceof SpnegoIdentity) {
+            chain.doFilter(new AuthenticatedRequest(request, (SpnegoIdentity) validated), response);
+            return;
+        }
+
+        SpnegoIdentity session = getSession(request);
+        if (null != session) {
+            request.setAttribute(IDENTITY_ATTRIBUTE, session);
+            chain.doFilter(new AuthenticatedRequest(request, session), response);
+            return;
+        }
+
+        final Object connectionKey = null == connections ? null : connectionKeyResolver.getConnectionKey(request);
+
+        byte[] token = getNegotiateToken(request);
+        if (null == token) {
+            SpnegoIdentity bound = null == connectionKey ? null : connections.getIfPresent(connectionKey);
+            if (null != bound) {
+                request.setAttribute(IDENTITY_ATTRIBUTE, bound);
+                chain.doFilter(new AuthenticatedRequest(request, bound), response);
+                return;
+            }
+            challenge(response);
+            return;
+        }
+
+        if (async && request.isAsyncSupported()) {
+
+            final AsyncContext asyncContext = request.startAsync();
+            acceptor.acceptAsync(token, executor).whenComplete(new BiConsumer<SpnegoIdentity, Throwable>() {
+                @Override
+                public void accept(SpnegoIdentity identity, Throwable failure) {
+                    if (null == failure) {
+                        authenticated(request, response, identity, connectionKey);
+                        asyncContext.dispatch();
+                    } else {
+                        LOGGER.debug("Rejected SPNEGO token", failure);
+                        if (null != connectionKey) connections.invalidate(connectionKey);
+                        challenge(response);
+                        asyncContext.complete();
+                    }
+                }
+            });
+            return;
+
+        }
+
+        SpnegoIdentity identity;
+        try {
+            identity = acceptor.accept(token);
+        } catch (Exception e) {
+            LOGGER.debug("Rejected SPNEGO token", e);
+            if (null != connectionKey) connections.invalidate(connectionKey);
+            challenge(response);
+            return;
+        }
+
+        authenticated(request, response, identity, connectionKey);
+        chain.doFilter(new AuthenticatedRequest(request, identity), response);
+
+    }
+
+    @Override
+    public void destroy() {
+        if (null != executor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Exposes the identity of a validated token to the request and the client and binds it to
+     * the session and connection, if enabled.
+     */
+    private void authenticated(HttpServletRequest request, HttpServletResponse response, SpnegoIdentity identity,
+                               Object connectionKey) {
+        request.setAttribute(IDENTITY_ATTRIBUTE, identity);
+        setResponseToken(response, identity);
+        startSession(request, response, identity);
+        if (null != connectionKey) connections.put(connectionKey, identity);
+    }
+
+    /**
+     * Sessions end after their lifetime or with the ticket, whichever comes first.
+     */
+    static long sessionExpirationTime(SpnegoIdentity identity, long now, long sessionLifetimeMillis) {
+        return Math.min(identity.getExpirationTime(), now + sessionLifetimeMillis);
+    }
+
+    private static ConnectionKeyResolver newConnectionKeyResolver(String connection) throws ServletException {
+        try {
+            return Class.forName(connection).asSubclass(ConnectionKeyResolver.class).newInstance();
+        } catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException e) {
+            throw new ServletException("Invalid spnego.connection " + connection, e);
+        }
+    }
+
+    /**
+     * Returns the Negotiate token of the request, or null if it has none.
+     */
+    private static byte[] getNegotiateToken(HttpServletRequest request) {
+        try {
+            SpnegoAuthScheme authScheme = SpnegoProvider.getAuthScheme(request.getHeader(Constants.AUTHZ_HEADER));
+            if (null == authScheme || !Constants.NEGOTIATE_HEADER.equals(authScheme.getScheme())) return null;
+            byte[] token = authScheme.getToken();
+            return 0 == token.length ? null : token;
+        } catch (RuntimeException e) {
+            // other schemes and malformed Base64
+            LOGGER.debug("Unusable authorization header", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the identity of the session cookie of the request, or null if it has no valid one.
+     */
+    private SpnegoIdentity getSession(HttpServletRequest request) {
+        if (null == sessionTokenCodec) return null;
+        Cookie[] cookies = request.getCookies();
+        if (null == cookies) return null;
+        for (Cookie cookie : cookies) {
+            if (sessionCookie.equals(cookie.getName())) {
+                SpnegoIdentity identity = sessionTokenCodec.verify(cookie.getValue());
+                if (null != identity) return identity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the session cookie, valid until the ticket expires or the session lifetime has passed.
+     * No cookie is set if the PAC could not be decoded, so that a session never carries groups
+     * which are missing only because of the failure.
+     */
+    private void startSession(HttpServletRequest request, HttpServletResponse response, SpnegoIdentity identity) {
+
+        if (null == sessionTokenCodec) return;
+
+        long now = System.currentTimeMillis();
+        long expirationTime = sessionExpirationTime(identity, now, sessionLifetimeMillis);
+        int maxAge = (int) TimeUnit.MILLISECONDS.toSeconds(expirationTime - now);
+        if (maxAge <= 0) return;
+
+        List<String> groupSids;
+        try {
+            groupSids = identity.getGroupSids();
+        } catch (Kerb4JException e) {
+            LOGGER.warn("No session for " + identity.getName() + ", its PAC could not be decoded", e);
+            return;
+        }
+
+        String sessionToken = sessionTokenCodec.issue(identity.getName(), groupSids, expirationTime);
+        if (sessionCookie.length() + sessionToken.length() > MAX_SESSION_COOKIE_LENGTH) {
+            LOGGER.debug("No session for {}, its {} groups do not fit into a cookie", identity.getName(), groupSids.size());
+            return;
+        }
+
+        Cookie cookie = new Cookie(sessionCookie, sessionToken);
+        cookie.setHttpOnly(true);
+        cookie.setSecure(sessionSecure);
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setMaxAge(maxAge);
+        response.addCookie(cookie);
+
+    }
+
+    private static void challenge(HttpServletResponse response) {
+        response.setHeader(Constants.AUTHN_HEADER, Constants.NEGOTIATE_HEADER);
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+
+    private static void setResponseToken(HttpServletResponse response, SpnegoIdentity identity) {
+        byte[] responseToken = identity.getResponseToken();
+        if (responseToken.length > 0) {
+            response.setHeader(Constants.AUTHN_HEADER, Constants.NEGOTIATE_HEADER + " " + Base64Codec.encode(responseToken));
+        }
+    }
+
+    private static final class AuthenticatedRequest extends HttpServletRequestWrapper {
+
+        private final SpnegoIdentity identity;
+
+        private AuthenticatedRequest(HttpServletRequest request, SpnegoIdentity identity) {
+            super(request);
+            this.identity = identity;
+        }
+
+        @Override
+        public String getAuthType() {
+            return Constants.NEGOTIATE_HEADER;
+        }
+
+        @Override
+        public String getRemoteUser() {
+            return identity.getName();
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return identity;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package server;
+
+import pac.Pac;
+import pac.PacLogonInfo;
+import pac.PacSid;
+import spnego.Kerb4JException;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Client authenticated by a SPNEGO token.
+ *
+ * <p>
+ * The principal name and the end time of the ticket are known once the token has been accepted.
+ * The PAC, with the group SIDs of the client, is only decoded on first access since most requests
+ * do not need it.
+ * Identities restored from a session token carry the group SIDs but no PAC.
+ * </p>
+ */
+public final class SpnegoIdentity implements Principal {
+
+    private static final byte[] EMPTY_BYTE = new byte[0];
+
+    private final String name;
+    private final byte[] responseToken;
+    private final TicketPac ticketPac;
+    private final List<String> groupSids;
+    private final long expirationTime;
+
+    SpnegoIdentity(String name, byte[] responseToken, TicketPac ticketPac, long expirationTime) {
+        this.name = name;
+        this.responseToken = null == responseToken ? EMPTY_BYTE : responseToken;
+        this.ticketPac = ticketPac;
+        this.groupSids = null;
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * Restores an identity from a session token.
+     */
+    SpnegoIdentity(String name, List<String> groupSids, long expirationTime) {
+        this.name = name;
+        this.responseToken = EMPTY_BYTE;
+        this.ticketPac = null;
+        this.groupSids = Collections.unmodifiableList(groupSids);
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * @return principal name of the client, user@REALM
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return principal name of the client without realm
+     */
+    public String getUserName() {
+        int realmSeparator = name.lastIndexOf('@');
+        return realmSeparator < 0 ? name : name.substring(0, realmSeparator);
+    }
+
+    public String getRealm() {
+        int realmSeparator = name.lastIndexOf('@');
+        return realmSeparator < 0 ? null : name.substring(realmSeparator + 1);
+    }
+
+    /**
+     * @return token to return to the client for mutual authentication, empty if there is none
+     */
+    public byte[] getResponseToken() {
+        return responseToken.clone();
+    }
+
+    /**
+     * Returns the PAC of the ticket, decrypting the ticket on first call, or null if the ticket
+     * carries no PAC, e.g. when issued by an MIT KDC.
+     *
+     * @throws Kerb4JException if the PAC could not be decoded, distinct from a ticket without PAC
+     */
+    public Pac getPac() throws Kerb4JException {
+        return null == ticketPac ? null : ticketPac.get();
+    }
+
+    /**
+     * Returns the logon information of the PAC, or null if the ticket carries no PAC.
+     */
+    public PacLogonInfo getLogonInfo() throws Kerb4JException {
+        Pac pac = getPac();
+        return null == pac ? null : pac.getLogonInfo();
+    }
+
+    /**
+     * @return SIDs of the groups of the client, empty if the ticket carries no PAC
+     * @throws Kerb4JException if the PAC could not be decoded
+     */
+    public List<String> getGroupSids() throws Kerb4JException {
+        if (null != groupSids) return groupSids;
+        PacLogonInfo logonInfo = getLogonInfo();
+        if (null == logonInfo || null == logonInfo.getGroupSids()) return Collections.emptyList();
+        List<String> groupSids = new ArrayList<>();
+        for (PacSid groupSid : logonInfo.getGroupSids()) {
+            groupSids.add(groupSid.toHumanReadableString());
+        }
+        return groupSids;
+    }
+
+    /**
+     * @return encrypted part of the ticket the client authenticated with, which identifies the
+     * ticket; null for identities restored from a session token
+     */
+    public byte[] getTicketCipher() {
+        if (null == ticketPac) return null;
+        byte[] cipher = ticketPac.getCipher();
+        return null == cipher ? null : cipher.clone();
+    }
+
+    /**
+     * @return end time of the ticket or session token the client authenticated with, in milliseconds
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
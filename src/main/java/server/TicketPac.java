@@ -0,0 +1,133 @@
+package server;
+
+import client.SpnegoClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pac.Pac;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.type.ticket.EncTicketPart;
+import spnego.Kerb4JException;
+import spnego.SpnegoInitToken;
+import spnego.SpnegoKerberosMechToken;
+
+import javax.security.auth.kerberos.KerberosKey;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ticket carried by a token, decrypted on first access for its end time and PAC.
+ *
+ * <p>
+ * Tokens presenting the same ticket share one instance, so the ticket is decrypted and its PAC
+ * decoded once. Failures are not remembered, the next access tries again.
+ * </p>
+ */
+final class TicketPac {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketPac.class);
+
+    private final byte[] token;
+    private final SpnegoClient acceptorClient;
+
+    /** Not a monitor, looking the keys up may log in, which would pin virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Guarded by lock. */
+    private KerberosKey[] keys;
+    /** Guarded by lock. */
+    private SpnegoKerberosMechToken mechToken;
+    /** Guarded by lock. */
+    private EncTicketPart ticketPart;
+    /** Guarded by lock. */
+    private Pac pac;
+    /** Guarded by lock. */
+    private boolean decoded;
+
+    /**
+     * @param keys keys of the acceptor if already looked up, null to look them up on first access
+     */
+    TicketPac(byte[] token, SpnegoClient acceptorClient, KerberosKey[] keys) {
+        this.token = token;
+        this.acceptorClient = acceptorClient;
+        this.keys = keys;
+    }
+
+    /**
+     * @return encrypted part of the ticket, which identifies it without decryption, or null if
+     * the token cannot be parsed
+     */
+    byte[] getCipher() {
+        lock.lock();
+        try {
+            return mechToken().getApRequest().getTicket().getEncryptedEncPart().getCipher();
+        } catch (Kerb4JException | RuntimeException e) {
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return end time of the ticket, in milliseconds
+     * @throws Kerb4JException if the ticket could not be decrypted
+     */
+    long getEndTime() throws Kerb4JException {
+        lock.lock();
+        try {
+            return decrypt().getEndTime().getTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return PAC of the ticket, null if the ticket carries none
+     * @throws Kerb4JException if the ticket could not be decrypted or the PAC not be decoded
+     */
+    Pac get() throws Kerb4JException {
+        lock.lock();
+        try {
+            if (!decoded) {
+                try {
+                    pac = mechToken().getPac(decrypt(), keys);
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to decode the PAC", e);
+                    throw e instanceof Kerb4JException ? (Kerb4JException) e : new Kerb4JException("Failed to decode the PAC", e);
+                }
+                decoded = true;
+            }
+            return pac;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called with lock held.
+     */
+    private EncTicketPart decrypt() throws Kerb4JException {
+        if (null == ticketPart) {
+            try {
+                if (null == keys) keys = acceptorClient.getKerberosKeys();
+                ticketPart = mechToken().getEncryptedTicketPart(keys);
+            } catch (KrbException | RuntimeException e) {
+                throw new Kerb4JException("Failed to decrypt the ticket", e);
+            }
+        }
+        return ticketPart;
+    }
+
+    /**
+     * Parses SPNEGO tokens as well as bare Kerberos ones. Called with lock held.
+     */
+    private SpnegoKerberosMechToken mechToken() throws Kerb4JException {
+        if (null == mechToken) {
+            try {
+                mechToken = new SpnegoInitToken(token).getSpnegoKerberosMechToken();
+            } catch (Kerb4JException | RuntimeException e) {
+                mechToken = new SpnegoKerberosMechToken(token);
+            }
+        }
+        return mechToken;
+    }
+
+}
@@ -0,0 +1,263 @@
+package server;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Validates a stream of tokens with a {@link SpnegoAcceptor}.
+ *
+ * <p>
+ * Tokens are validated on the given executor, which should be bounded, at most
+ * {@code maxInFlight} at a time. Results are emitted as soon as they are available and
+ * therefore not necessarily in request order; they carry the correlation id of their request.
+ * No more tokens are requested from upstream than the subscriber has requested results and
+ * than {@code maxInFlight}, so nothing is buffered beyond that. Invalid tokens produce a result
+ * with an error, the stream only fails if upstream fails.
+ * </p>
+ *
+ * <p>
+ * Supports a single subscriber.
+ * </p>
+ */
+public final class TokenValidationProcessor implements Processor<ValidationRequest, ValidationResult> {
+
+    private final SpnegoAcceptor acceptor;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final boolean decodePac;
+
+    private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+    private final AtomicReference<Subscriber<? super ValidationResult>> downstream = new AtomicReference<>();
+
+    /** Results requested by the subscriber and not emitted yet. */
+    private final AtomicLong demand = new AtomicLong();
+    /** Tokens requested from upstream and not received yet. */
+    private final AtomicLong pending = new AtomicLong();
+    /** Tokens received and whose result has not been emitted yet. */
+    private final AtomicInteger processing = new AtomicInteger();
+
+    private final Queue<ValidationResult> ready = new ConcurrentLinkedQueue<>();
+
+    /** Serializes {@link #drain()}. */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile boolean cancelled;
+    private volatile Throwable downstreamError;
+    private boolean terminated;
+
+    /**
+     * @param acceptor validates the tokens
+     * @param executor runs the validations, should be bounded
+     * @param maxInFlight maximum number of tokens being validated or waiting for demand
+     * @param decodePac whether to decrypt the PAC on the executor as well, so that reading it from
+     *                  the identity does not block the subscriber
+     */
+    public TokenValidationProcessor(SpnegoAcceptor acceptor, Executor executor, int maxInFlight, boolean decodePac) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive");
+        this.acceptor = acceptor;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.decodePac = decodePac;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (null == subscription) throw new NullPointerException("subscription");
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(final ValidationRequest request) {
+
+        if (null == request) throw new NullPointerException("request");
+        if (upstreamDone || cancelled) return;
+
+        pending.decrementAndGet();
+        processing.incrementAndGet();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    validate(request);
+                }
+            });
+        } catch (RuntimeException e) {
+            ready.offer(new ValidationResult(request.getCorrelationId(), null, e));
+            drain();
+        }
+
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (null == throwable) throw new NullPointerException("throwable");
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super ValidationResult> subscriber) {
+
+        if (null == subscriber) throw new NullPointerException("subscriber");
+
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("TokenValidationProcessor supports a single subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    downstreamError = new IllegalArgumentException("Rule 3.9: request must be positive: " + n);
+                } else {
+                    addDemand(n);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Subscription subscription = upstream.get();
+                if (null != subscription) subscription.cancel();
+            }
+        });
+        downstream.set(subscriber);
+        drain();
+
+    }
+
+    private void validate(ValidationRequest request) {
+        ValidationResult result;
+        try {
+            SpnegoIdentity identity = acceptor.accept(request.getToken());
+            if (decodePac) identity.getPac();
+            result = new ValidationResult(request.getCorrelationId(), identity, null);
+        } catch (Exception e) {
+            result = new ValidationResult(request.getCorrelationId(), null, e);
+        }
+        ready.offer(result);
+        drain();
+    }
+
+    private void addDemand(long n) {
+        for (;;) {
+            long current = demand.get();
+            long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+            if (demand.compareAndSet(current, updated)) return;
+        }
+    }
+
+    /**
+     * Emits ready results within the demand, requests more tokens from upstream and signals
+     * termination. Runs on one thread at a time; calls during a run cause another pass.
+     */
+    private void drain() {
+
+        if (wip.getAndIncrement() != 0) return;
+
+        int missed = 1;
+
+        for (;;) {
+
+            Subscriber<? super ValidationResult> subscriber = downstream.get();
+
+            if (null != subscriber && !terminated) {
+
+                if (cancelled) {
+                    ready.clear();
+                    terminated = true;
+                } else if (null != downstreamError) {
+                    terminated = true;
+                    Subscription subscription = upstream.get();
+                    if (null != subscription) subscription.cancel();
+                    subscriber.onError(downstreamError);
+                } else {
+
+                    long requested = demand.get();
+                    long emitted = 0;
+                    ValidationResult result;
+                    while (emitted != requested && null != (result = ready.poll())) {
+                        processing.decrementAndGet();
+                        subscriber.onNext(result);
+                        emitted++;
+                    }
+                    if (0 != emitted && Long.MAX_VALUE != requested) {
+                        demand.addAndGet(-emitted);
+                    }
+
+                    if (upstreamDone) {
+                        if (0 == processing.get()) {
+                            terminated = true;
+                            if (null != upstreamError) {
+                                subscriber.onError(upstreamError);
+                            } else {
+                                subscriber.onComplete();
+                            }
+                        }
+                    } else {
+                        requestUpstream();
+                    }
+
+                }
+
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (0 == missed) return;
+
+        }
+
+    }
+
+    private void requestUpstream() {
+        Subscription subscription = upstream.get();
+        if (null == subscription) return;
+        long outstanding = pending.get() + processing.get();
+        long wanted = Math.min(maxInFlight - outstanding, demand.get() - outstanding);
+        if (wanted > 0) {
+            pending.addAndGet(wanted);
+            subscription.request(wanted);
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * Token to validate, see {@link TokenValidationProcessor}.
+ */
+public final class ValidationRequest {
+
+    private final String correlationId;
+    private final byte[] token;
+
+    /**
+     * @param correlationId identifies the result of this request
+     * @param token SPNEGO or Kerberos token
+     */
+    public ValidationRequest(String correlationId, byte[] token) {
+        if (null == token) throw new NullPointerException("token");
+        this.correlationId = correlationId;
+        this.token = token;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public byte[] getToken() {
+        return token;
+    }
+
+}
@@ -0,0 +1,46 @@
+package server;
+
+/**
+ * Outcome of a {@link ValidationRequest}, see {@link TokenValidationProcessor}.
+ */
+public final class ValidationResult {
+
+    private final String correlationId;
+    private final SpnegoIdentity identity;
+    private final Throwable error;
+
+    ValidationResult(String correlationId, SpnegoIdentity identity, Throwable error) {
+        this.correlationId = correlationId;
+        this.identity = identity;
+        this.error = error;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public boolean isValid() {
+        return null != identity;
+    }
+
+    /**
+     * @return authenticated client, null if the token is invalid
+     */
+    public SpnegoIdentity getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return reason the token was rejected, null if it is valid
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult{correlationId=" + correlationId + ", "
+                + (null == identity ? "error=" + error : "identity=" + identity) + "}";
+    }
+
+}
@@ -0,0 +1,221 @@
+package server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spnego.Constants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Standalone token validator on the JDK HTTP server, without servlet container and Spring,
+ * e.g. as sidecar of a proxy. Packaged as the {@code sidecar} jar of the build.
+ *
+ * <p>
+ * {@code /auth} answers like {@link AuthRequestServlet}, {@code /health} with {@code 200} once
+ * the service principal has logged in. Optionally tokens are validated over the binary
+ * protocol of {@link BinaryValidationServer} as well.
+ * </p>
+ *
+ * <p>
+ * Configured with system properties:
+ * </p>
+ * <ul>
+ *     <li>{@code spnego.principal} - service principal, e.g. HTTP/host@REALM</li>
+ *     <li>{@code spnego.keytab} - keytab of the service principal</li>
+ *     <li>{@code spnego.host} - address to listen on, all by default</li>
+ *     <li>{@code spnego.port} - port to listen on, 8081 by default</li>
+ *     <li>{@code spnego.threads} - request threads, twice the number of processors by default; once they
+ *     are busy and {@value #QUEUE_CAPACITY} requests wait, further requests are answered with {@code 503}</li>
+ *     <li>{@code spnego.cache.size} - maximum number of cached tokens, 10000 by default</li>
+ *     <li>{@code spnego.binary.port} - port of the binary protocol, disabled by default</li>
+ *     <li>{@code spnego.binary.host} - address of the binary protocol, 127.0.0.1 by default</li>
+ * </ul>
+ */
+public final class ValidationSidecar {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationSidecar.class);
+
+    private static final int DEFAULT_PORT = 8081;
+
+    /** Requests waiting for a thread, beyond that they are answered with 503. */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /** Set while the dispatcher thread of the HTTP server runs a rejected request. */
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+
+    private ValidationSidecar(HttpServer server, ThreadPoolExecutor executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        String principal = System.getProperty("spnego.principal");
+        String keyTab = System.getProperty("spnego.keytab");
+        if (null == principal || null == keyTab) {
+            System.err.println("Usage: java -Dspnego.principal=HTTP/host@REALM -Dspnego.keytab=/path/to/keytab"
+                    + " [-Dspnego.port=8081] -jar kerberos-api-sidecar.jar");
+            System.exit(2);
+        }
+
+        String host = System.getProperty("spnego.host");
+        int port = Integer.getInteger("spnego.port", DEFAULT_PORT);
+        int threads = Integer.getInteger("spnego.threads", 2 * Runtime.getRuntime().availableProcessors());
+        int cacheSize = Integer.getInteger("spnego.cache.size", IdentityHeaderCache.DEFAULT_MAXIMUM_SIZE);
+
+        SpnegoAcceptor acceptor = SpnegoAcceptor.forKeyTab(principal, keyTab);
+
+        final ValidationSidecar sidecar = start(null == host ? new InetSocketAddress(port) : new InetSocketAddress(host, port),
+                acceptor, threads, cacheSize);
+
+        Integer binaryPort = Integer.getInteger("spnego.binary.port");
+        if (null != binaryPort) {
+            ThreadPoolExecutor binaryExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "spnego-binary-worker-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            BinaryValidationServer.start(new InetSocketAddress(System.getProperty("spnego.binary.host", "127.0.0.1"),
+                    binaryPort), acceptor, binaryExecutor);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sidecar.stop(1);
+            }
+        }, "spnego-sidecar-shutdown"));
+
+    }
+
+    /**
+     * Starts a sidecar validating tokens with the given acceptor.
+     */
+    public static ValidationSidecar start(InetSocketAddress address, SpnegoAcceptor acceptor, int threads, int cacheSize)
+            throws IOException {
+
+        // small responses, do not wait for acknowledgements of the previous ones
+        if (null == System.getProperty("sun.net.httpserver.nodelay")) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "spnego-sidecar-" + threadNumber.incrementAndGet());
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable exchange, ThreadPoolExecutor executor) {
+                        // the exchange has to run to be answered, but only as far as the 503 in handle
+                        REJECTED.set(Boolean.TRUE);
+                        try {
+                            exchange.run();
+                        } finally {
+                            REJECTED.remove();
+                        }
+                    }
+                });
+        executor.prestartAllCoreThreads();
+
+        final IdentityHeaderCache identityHeaders = new IdentityHeaderCache(acceptor, cacheSize);
+
+        HttpServer server = HttpServer.create(address, QUEUE_CAPACITY);
+        server.setExecutor(executor);
+        server.createContext("/auth", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (null != REJECTED.get()) {
+                        LOGGER.debug("Request threads busy, rejecting request");
+                        exchange.sendResponseHeaders(503, -1);
+                        return;
+                    }
+                    auth(exchange, identityHeaders);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    exchange.sendResponseHeaders(200, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+
+        LOGGER.info("Validating tokens on {}", server.getAddress());
+
+        return new ValidationSidecar(server, executor);
+
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests and waits for the ongoing ones up to the given time.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    private static void auth(HttpExchange exchange, IdentityHeaderCache identityHeaders) throws IOException {
+
+        Headers responseHeaders = exchange.getResponseHeaders();
+
+        String authorization = exchange.getRequestHeaders().getFirst(Constants.AUTHZ_HEADER);
+        if (null != authorization) {
+            try {
+                IdentityHeaderCache.IdentityHeaders headers = identityHeaders.get(authorization);
+                responseHeaders.set(IdentityHeaderCache.USER_HEADER, headers.user);
+                responseHeaders.set(IdentityHeaderCache.UPN_HEADER, headers.upn);
+                responseHeaders.set(IdentityHeaderCache.GROUPS_HEADER, headers.groups);
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IllegalStateException) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                LOGGER.debug("Rejected authorization header", e.getCause());
+            }
+        }
+
+        responseHeaders.set(Constants.AUTHN_HEADER, Constants.NEGOTIATE_HEADER);
+        exchange.sendResponseHeaders(401, -1);
+
+    }
+
+}
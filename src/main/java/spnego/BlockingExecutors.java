@@ -0,0 +1,65 @@
+package spnego;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for tasks which mostly wait, e.g. for a KDC, a JAAS login or a JGSS context.
+ *
+ * <p>
+ * This is the Java 8 version, running tasks on daemon platform threads. On Java 21 and later
+ * the multi-release jar provides a version which runs every task on its own virtual thread, so
+ * that thousands of concurrent waits do not need thousands of OS threads. Code running on
+ * these executors should not block while holding a monitor, which would pin the virtual
+ * thread to its carrier; locks are used instead.
+ * </p>
+ */
+public final class BlockingExecutors {
+
+    private BlockingExecutors() {
+        // default private
+    }
+
+    /**
+     * @return whether tasks run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Creates an executor starting threads as needed and reusing idle ones.
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        return Executors.newCachedThreadPool(new DaemonThreadFactory(namePrefix));
+    }
+
+    /**
+     * Creates an executor with the given number of threads, further tasks are queued. The bound
+     * also applies to virtual threads.
+     */
+    public static ExecutorService newExecutor(String namePrefix, int threads) {
+        return Executors.newFixedThreadPool(threads, new DaemonThreadFactory(namePrefix));
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
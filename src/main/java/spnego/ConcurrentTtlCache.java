@@ -0,0 +1,512 @@
+package spnego;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache with per-entry expiration, size and weight bounds.
+ *
+ * <p>
+ * Unlike {@link LRUCache} reads take no lock: they only record themselves in a buffer, which is
+ * replayed into an access ordered list by whichever thread next gets the eviction lock without
+ * waiting. Read records are dropped while the buffer is full, so the order is approximate under
+ * heavy load. Values are loaded outside of any shared lock; concurrent requests for a key which
+ * is being loaded wait for that single load.
+ * </p>
+ *
+ * <p>
+ * An entry expires when either the time returned by the {@link Expiry} has passed or it has
+ * not been read for {@code expireAfterAccessMillis}. Expired entries are dropped when read, by
+ * {@link #cleanUp()}, or like any other entry once they are the least recently read: when the
+ * size or weight bound is exceeded entries are dropped from the head of the access order,
+ * without looking at the others.
+ * </p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ConcurrentTtlCache<K, V> {
+
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    public interface Expiry<V> {
+        /**
+         * @return time in milliseconds since the epoch after which the value must not be used
+         */
+        long getExpirationTime(V value);
+    }
+
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    /** Read records are dropped above this number of pending ones. */
+    private static final int READ_BUFFER_LIMIT = 1024;
+
+    /** Pending read records after which a reader tries to replay them. */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+
+    private final ConcurrentMap<K, Node<K, V>> nodes = new ConcurrentHashMap<>();
+
+    /** Nodes added to or removed from the map, never dropped. */
+    private final Queue<Node<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    /** Nodes read, lossy. */
+    private final Queue<Node<K, V>> readBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readBufferSize = new AtomicInteger();
+
+    /** Least recently read node of the access order. Guarded by evictionLock. */
+    private Node<K, V> head;
+    /** Most recently read node of the access order. Guarded by evictionLock. */
+    private Node<K, V> tail;
+
+    private final long maximumSize;
+    private final long maximumWeight;
+    private final long expireAfterAccessMillis;
+    private final Expiry<? super V> expiry;
+    private final Weigher<? super V> weigher;
+
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of entries
+     * @param maximumWeight maximum total weight of entries, {@link Long#MAX_VALUE} if not bounded
+     * @param expireAfterAccessMillis idle time after which an entry expires, {@link Long#MAX_VALUE} if never
+     * @param expiry per value expiration time, may be null
+     * @param weigher per value weight, may be null in which case every value weighs 1
+     */
+    public ConcurrentTtlCache(long maximumSize, long maximumWeight, long expireAfterAccessMillis,
+                              Expiry<? super V> expiry, Weigher<? super V> weigher) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("maximumSize must be positive");
+        if (maximumWeight <= 0) throw new IllegalArgumentException("maximumWeight must be positive");
+        if (expireAfterAccessMillis <= 0) throw new IllegalArgumentException("expireAfterAccessMillis must be positive");
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+        this.expireAfterAccessMillis = expireAfterAccessMillis;
+        this.expiry = expiry;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value for the given key, loading it with the passed-in loader if it is missing
+     * or expired. Loader failures are not cached.
+     *
+     * @throws ExecutionException wrapping the exception thrown by the loader
+     */
+    public V get(K key, Loader<? super K, ? extends V> loader) throws ExecutionException {
+
+        for (;;) {
+
+            Node<K, V> node = nodes.get(key);
+
+            if (null == node) {
+                Node<K, V> created = new Node<>(key);
+                node = nodes.putIfAbsent(key, created);
+                if (null == node) {
+                    missCount.increment();
+                    return load(key, created, loader);
+                }
+            }
+
+            V value = node.value;
+
+            if (null == value) {
+                // another thread is loading this key
+                hitCount.increment();
+                return node.await();
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (!isExpired(node, value, now)) {
+                node.lastAccessTime = now;
+                hitCount.increment();
+                recordRead(node);
+                return value;
+            }
+
+            if (remove(key, node)) maintain();
+
+        }
+
+    }
+
+    /**
+     * Returns the value for the given key if it is present and not expired, null otherwise.
+     * Does not wait for a value which is being loaded.
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = nodes.get(key);
+        V value = null == node ? null : node.value;
+        long now = System.currentTimeMillis();
+        if (null == value || isExpired(node, value, now)) {
+            missCount.increment();
+            return null;
+        }
+        node.lastAccessTime = now;
+        hitCount.increment();
+        recordRead(node);
+        return value;
+    }
+
+    /**
+     * Associates the value with the key replacing any present one. Readers keep getting
+     * the previous value until this method is called.
+     */
+    public void put(K key, V value) {
+
+        if (null == value) throw new NullPointerException("value");
+
+        Node<K, V> node = new Node<>(key);
+        node.weight = null == weigher ? 1 : weigher.weigh(value);
+        node.lastAccessTime = System.currentTimeMillis();
+        totalWeight.addAndGet(node.weight);
+        node.weighed.set(true);
+        node.value = value;
+        node.future.complete(value);
+
+        Node<K, V> previous = nodes.put(key, node);
+        if (null != previous) {
+            unweigh(previous);
+            writeBuffer.offer(previous);
+        }
+        writeBuffer.offer(node);
+
+        maintain();
+
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node = nodes.get(key);
+        if (null != node && remove(key, node)) {
+            maintain();
+        }
+    }
+
+    public void invalidateAll() {
+        for (Map.Entry<K, Node<K, V>> entry : nodes.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+        maintain();
+    }
+
+    /**
+     * Returns a weakly consistent view of the keys, including those of expired entries
+     * which have not been dropped yet.
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(nodes.keySet());
+    }
+
+    /**
+     * Drops expired entries. Expired entries are otherwise only dropped when read or when
+     * one of the bounds is exceeded.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            evictExpired(System.currentTimeMillis());
+            drainBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long size() {
+        return nodes.size();
+    }
+
+    public long weight() {
+        return totalWeight.get();
+    }
+
+    public Stats stats() {
+        return new Stats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), evictionCount.sum(), nodes.size(), totalWeight.get());
+    }
+
+    private V load(K key, Node<K, V> node, Loader<? super K, ? extends V> loader) throws ExecutionException {
+
+        long startTime = System.nanoTime();
+
+        V value;
+        try {
+            value = loader.load(key);
+            if (null == value) throw new NullPointerException("Loader returned null for " + key);
+        } catch (Exception e) {
+            totalLoadTime.add(System.nanoTime() - startTime);
+            loadFailureCount.increment();
+            nodes.remove(key, node);
+            node.future.completeExceptionally(e);
+            throw new ExecutionException(e);
+        }
+
+        totalLoadTime.add(System.nanoTime() - startTime);
+        loadSuccessCount.increment();
+
+        node.weight = null == weigher ? 1 : weigher.weigh(value);
+        node.lastAccessTime = System.currentTimeMillis();
+        totalWeight.addAndGet(node.weight);
+        node.weighed.set(true);
+        node.value = value;
+        node.future.complete(value);
+
+        if (nodes.get(key) != node) {
+            // invalidated while loading
+            unweigh(node);
+        } else {
+            writeBuffer.offer(node);
+            maintain();
+        }
+
+        return value;
+
+    }
+
+    private boolean isExpired(Node<K, V> node, V value, long now) {
+        return now - node.lastAccessTime >= expireAfterAccessMillis
+                || (null != expiry && now >= expiry.getExpirationTime(value));
+    }
+
+    /**
+     * Removes the node from the map; it leaves the access order when the write buffer is drained.
+     */
+    private boolean remove(K key, Node<K, V> node) {
+        if (nodes.remove(key, node)) {
+            unweigh(node);
+            writeBuffer.offer(node);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the weight of a node out of the total once, whether it is removed before or after
+     * its load completes.
+     */
+    private void unweigh(Node<K, V> node) {
+        if (node.weighed.compareAndSet(true, false)) {
+            totalWeight.addAndGet(-node.weight);
+        }
+    }
+
+    private void recordRead(Node<K, V> node) {
+        if (readBufferSize.get() >= READ_BUFFER_LIMIT) return;
+        readBuffer.offer(node);
+        if (readBufferSize.incrementAndGet() >= READ_BUFFER_DRAIN_THRESHOLD) maintain();
+    }
+
+    /**
+     * Replays the buffers into the access order and brings the cache back within its bounds.
+     * Only one thread maintains the cache at a time, others do not wait for it.
+     */
+    private void maintain() {
+
+        if (!evictionLock.tryLock()) return;
+
+        try {
+
+            drainBuffers();
+
+            while (nodes.size() > maximumSize || totalWeight.get() > maximumWeight) {
+                Node<K, V> node = head;
+                if (null == node) break; // only entries being loaded are left
+                unlink(node);
+                if (remove(node.key, node)) {
+                    evictionCount.increment();
+                }
+            }
+
+        } finally {
+            evictionLock.unlock();
+        }
+
+    }
+
+    /**
+     * Links added nodes at the tail, unlinks removed ones and moves read ones to the tail.
+     * Called with evictionLock held.
+     */
+    private void drainBuffers() {
+
+        Node<K, V> node;
+        while (null != (node = writeBuffer.poll())) {
+            boolean current = nodes.get(node.key) == node && null != node.value;
+            if (current && !node.linked) {
+                link(node);
+            } else if (!current && node.linked) {
+                unlink(node);
+            }
+        }
+
+        while (null != (node = readBuffer.poll())) {
+            readBufferSize.decrementAndGet();
+            if (node.linked && node != tail) {
+                unlink(node);
+                link(node);
+            }
+        }
+
+    }
+
+    private void link(Node<K, V> node) {
+        node.prev = tail;
+        node.next = null;
+        if (null == tail) head = node; else tail.next = node;
+        tail = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (null == node.prev) head = node.next; else node.prev.next = node.next;
+        if (null == node.next) tail = node.prev; else node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+
+    private void evictExpired(long now) {
+        for (Map.Entry<K, Node<K, V>> entry : nodes.entrySet()) {
+            Node<K, V> node = entry.getValue();
+            V value = node.value;
+            if (null != value && isExpired(node, value, now) && remove(entry.getKey(), node)) {
+                evictionCount.increment();
+            }
+        }
+    }
+
+    private static class Node<K, V> {
+
+        private final K key;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+
+        private volatile V value;
+        private volatile long lastAccessTime;
+        private long weight;
+        private final AtomicBoolean weighed = new AtomicBoolean();
+
+        /** Access order links, guarded by evictionLock. */
+        private Node<K, V> prev;
+        private Node<K, V> next;
+        private boolean linked;
+
+        private Node(K key) {
+            this.key = key;
+        }
+
+        private V await() throws ExecutionException {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    try {
+                        return future.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    /**
+     * Point in time snapshot of cache statistics.
+     */
+    public static class Stats {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long loadSuccessCount;
+        private final long loadFailureCount;
+        private final long totalLoadTime;
+        private final long evictionCount;
+        private final long size;
+        private final long weight;
+
+        Stats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+              long totalLoadTime, long evictionCount, long size, long weight) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadSuccessCount = loadSuccessCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadTime = totalLoadTime;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+            return 0 == requestCount ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        public long getLoadSuccessCount() {
+            return loadSuccessCount;
+        }
+
+        public long getLoadFailureCount() {
+            return loadFailureCount;
+        }
+
+        /**
+         * @return total time spent loading values, in nanoseconds
+         */
+        public long getTotalLoadTime() {
+            return totalLoadTime;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hitCount=" + hitCount + ", missCount=" + missCount
+                    + ", loadSuccessCount=" + loadSuccessCount + ", loadFailureCount=" + loadFailureCount
+                    + ", totalLoadTime=" + totalLoadTime + ", evictionCount=" + evictionCount
+                    + ", size=" + size + ", weight=" + weight + "}";
+        }
+
+    }
+
+}
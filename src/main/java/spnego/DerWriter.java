@@ -0,0 +1,96 @@
+package spnego;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Minimal DER writer for wrapping already encoded values into tagged containers.
+ *
+ * <p>
+ * Used where Kerby types would have to be re-encoded on every call, e.g. when a
+ * pre-encoded ticket is placed into a new AP-REQ.
+ * </p>
+ */
+public final class DerWriter {
+
+    public static final int SEQUENCE = 0x30;
+    public static final int OCTET_STRING = 0x04;
+    public static final int INTEGER = 0x02;
+    public static final int BIT_STRING = 0x03;
+    public static final int OBJECT_IDENTIFIER = 0x06;
+    public static final int APPLICATION_0 = 0x60;
+
+    private DerWriter() {
+        // default private
+    }
+
+    /**
+     * @return tag number of a constructed context specific tag, i.e. [n]
+     */
+    public static int context(int n) {
+        return 0xA0 | n;
+    }
+
+    /**
+     * @return tag number of a constructed application tag, i.e. [APPLICATION n]
+     */
+    public static int application(int n) {
+        return 0x60 | n;
+    }
+
+    /**
+     * Encodes the concatenation of the passed-in values as the content of the given tag.
+     *
+     * @param tag single byte tag
+     * @param contents encoded values
+     * @return tag, length and contents
+     */
+    public static byte[] encode(int tag, byte[]... contents) {
+
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        writeLength(out, length);
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        return out.toByteArray();
+
+    }
+
+    /**
+     * Encodes a small non-negative INTEGER.
+     */
+    public static byte[] encodeInteger(int value) {
+        if (value < 0 || value > 0x7F) throw new IllegalArgumentException("Unsupported integer " + value);
+        return new byte[]{INTEGER, 1, (byte) value};
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length < 0x10000) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else if (length < 0x1000000) {
+            out.write(0x83);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x84);
+            out.write(length >> 24);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package spnego;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the host part of service principal names to the canonical host name the principal
+ * is registered under.
+ *
+ * <p>
+ * A host is first looked up in the static alias table, then, if the canonicalizer has a
+ * {@link Resolver}, its CNAME chain is followed. Results, including failed lookups, are cached
+ * for a limited time so that DNS is queried once per host and not once per security context.
+ * IP literals are never resolved.
+ * </p>
+ *
+ * <p>
+ * The default canonicalizer only applies aliases and passes every other host through
+ * unchanged, leaving canonicalization to JGSS and {@code dns_canonicalize_hostname} in
+ * krb5.conf, and working for services registered under an alias. DNS resolution is opt-in:
+ * </p>
+ * <pre>
+ * HostNameCanonicalizer.setDefault(new HostNameCanonicalizer(HostNameCanonicalizer.DNS_RESOLVER,
+ *         HostNameCanonicalizer.DEFAULT_TTL_MILLIS, HostNameCanonicalizer.DEFAULT_NEGATIVE_TTL_MILLIS));
+ * </pre>
+ * <p>
+ * With canonical names supplied that way, {@code dns_canonicalize_hostname = false} keeps DNS
+ * lookups out of context creation entirely.
+ * </p>
+ *
+ * @see SpnegoProvider#getServerName(java.net.URL)
+ * @see SpnegoProvider#createGSSNameForSPN(String)
+ */
+public final class HostNameCanonicalizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostNameCanonicalizer.class);
+
+    /**
+     * Looks up DNS CNAME records.
+     */
+    public interface Resolver {
+        /**
+         * @return the name the CNAME record of the host points to, null if there is none
+         */
+        String resolveCanonicalName(String host) throws Exception;
+    }
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Failed lookups are retried after this time. */
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_CNAME_CHAIN_LENGTH = 8;
+
+    private static final int CACHE_SIZE = 4096;
+
+    /**
+     * Resolves CNAME records through the JNDI DNS provider, with the search domains of
+     * /etc/resolv.conf for unqualified hosts.
+     */
+    public static final Resolver DNS_RESOLVER = dnsResolver(systemSearchDomains());
+
+    private static volatile HostNameCanonicalizer defaultCanonicalizer = new HostNameCanonicalizer(null, 0, 0);
+
+    private final Resolver resolver;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    private final ConcurrentMap<String, String> aliases = new ConcurrentHashMap<>();
+
+    private final ConcurrentTtlCache<String, CanonicalName> canonicalNames;
+
+    /**
+     * @param resolver follows CNAME records, null to apply aliases only and pass other hosts through
+     */
+    public HostNameCanonicalizer(Resolver resolver, long ttlMillis, long negativeTtlMillis) {
+        this.resolver = resolver;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.canonicalNames = new ConcurrentTtlCache<>(CACHE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE,
+                new ConcurrentTtlCache.Expiry<CanonicalName>() {
+                    @Override
+                    public long getExpirationTime(CanonicalName canonicalName) {
+                        return canonicalName.expirationTime;
+                    }
+                }, null);
+    }
+
+    /**
+     * Returns a resolver following CNAME records through the JNDI DNS provider.
+     *
+     * <p>
+     * JNDI does not apply search domains, so an unqualified host is qualified with the first of
+     * the given domains under which it has a CNAME, A or AAAA record, the way the system
+     * resolver would. It is never resolved through its address, since a reverse lookup yields
+     * the PTR record, which need not be the name the principal is registered under.
+     * </p>
+     *
+     * @param searchDomains domains to qualify unqualified hosts with, in order
+     */
+    public static Resolver dnsResolver(final List<String> searchDomains) {
+        final List<String> domains = new ArrayList<>();
+        for (String searchDomain : searchDomains) {
+            domains.add(normalize(searchDomain));
+        }
+        return new Resolver() {
+            @Override
+            public String resolveCanonicalName(String host) throws Exception {
+                Hashtable<String, String> environment = new Hashtable<>();
+                environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+                DirContext context = new InitialDirContext(environment);
+                try {
+                    if (host.indexOf('.') >= 0) return lookup(context, host, "CNAME");
+                    for (String domain : domains) {
+                        String qualifiedHost = host + '.' + domain;
+                        String cname = lookup(context, qualifiedHost, "CNAME");
+                        if (null != cname) return cname;
+                        if (null != lookup(context, qualifiedHost, "A") || null != lookup(context, qualifiedHost, "AAAA")) {
+                            return qualifiedHost;
+                        }
+                    }
+                    return null;
+                } finally {
+                    context.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return first value of the record of the given type, null if there is none
+     */
+    private static String lookup(DirContext context, String host, String type) throws NamingException {
+        try {
+            Attribute attribute = context.getAttributes(host, new String[]{type}).get(type);
+            return null == attribute ? null : String.valueOf(attribute.get());
+        } catch (NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static List<String> systemSearchDomains() {
+        File resolvConf = new File("/etc/resolv.conf");
+        if (!resolvConf.isFile()) return Collections.emptyList();
+        try (Reader reader = new InputStreamReader(new FileInputStream(resolvConf), StandardCharsets.US_ASCII)) {
+            return parseSearchDomains(reader);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read " + resolvConf, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Parses the search list of a resolv.conf; the last search or domain line wins, as in
+     * the system resolver.
+     */
+    static List<String> parseSearchDomains(Reader resolvConf) throws IOException {
+        List<String> searchDomains = Collections.emptyList();
+        BufferedReader reader = new BufferedReader(resolvConf);
+        String line;
+        while (null != (line = reader.readLine())) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 2) continue;
+            if ("search".equals(fields[0])) {
+                searchDomains = Arrays.asList(fields).subList(1, fields.length);
+            } else if ("domain".equals(fields[0])) {
+                searchDomains = Collections.singletonList(fields[1]);
+            }
+        }
+        return searchDomains;
+    }
+
+    /**
+     * Returns the canonicalizer used by {@link SpnegoProvider}, by default one applying aliases only.
+     */
+    public static HostNameCanonicalizer getDefault() {
+        return defaultCanonicalizer;
+    }
+
+    public static void setDefault(HostNameCanonicalizer canonicalizer) {
+        if (null == canonicalizer) throw new NullPointerException("canonicalizer");
+        defaultCanonicalizer = canonicalizer;
+    }
+
+    /**
+     * Maps the alias to the given host name without consulting DNS.
+     */
+    public void addAlias(String alias, String host) {
+        aliases.put(normalize(alias), normalize(host));
+    }
+
+    public void addAliases(Map<String, String> aliases) {
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            addAlias(alias.getKey(), alias.getValue());
+        }
+    }
+
+    public void removeAlias(String alias) {
+        aliases.remove(normalize(alias));
+    }
+
+    /**
+     * Drops all cached lookups, aliases are kept.
+     */
+    public void clearCache() {
+        canonicalNames.invalidateAll();
+    }
+
+    /**
+     * @param host host name or IP literal
+     * @return lower case canonical host name, the host itself if it cannot be resolved or there
+     * is no resolver
+     */
+    public String canonicalize(String host) {
+
+        String normalizedHost = normalize(host);
+
+        String alias = aliases.get(normalizedHost);
+        if (null != alias) return alias;
+
+        if (null == resolver) return host;
+
+        if (isIpLiteral(normalizedHost)) return normalizedHost;
+
+        try {
+            return canonicalNames.get(normalizedHost, new ConcurrentTtlCache.Loader<String, CanonicalName>() {
+                @Override
+                public CanonicalName load(String host) {
+                    return resolve(host);
+                }
+            }).name;
+        } catch (ExecutionException e) {
+            // the loader does not throw
+            return normalizedHost;
+        }
+
+    }
+
+    /**
+     * Replaces the host of a service principal name with its canonical name.
+     *
+     * @param spn service/host or service@host, optionally followed by @REALM
+     * @return SPN with the same separators and the canonical host
+     */
+    public String canonicalizeSPN(String spn) {
+
+        int separator = spn.indexOf('/');
+        if (separator < 0) separator = spn.indexOf('@');
+        if (separator < 0) return spn;
+
+        int hostEnd = spn.indexOf('@', separator + 1);
+        if (hostEnd < 0) hostEnd = spn.length();
+
+        int portSeparator = spn.indexOf(':', separator + 1);
+        if (portSeparator > 0 && portSeparator < hostEnd) hostEnd = portSeparator;
+
+        return spn.substring(0, separator + 1)
+                + canonicalize(spn.substring(separator + 1, hostEnd))
+                + spn.substring(hostEnd);
+
+    }
+
+    private CanonicalName resolve(String host) {
+
+        String name = host;
+
+        try {
+            for (int i = 0; i < MAX_CNAME_CHAIN_LENGTH; i++) {
+                String canonicalName = resolver.resolveCanonicalName(name);
+                if (null == canonicalName) break;
+                canonicalName = normalize(canonicalName);
+                if (canonicalName.equals(name)) break;
+                name = canonicalName;
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Failed to resolve " + host, e);
+            return new CanonicalName(host, System.currentTimeMillis() + negativeTtlMillis);
+        }
+
+        LOGGER.trace("host=" + host + "; canonical=" + name);
+        return new CanonicalName(name, System.currentTimeMillis() + ttlMillis);
+
+    }
+
+    private static String normalize(String host) {
+        String normalized = host.trim().toLowerCase(Locale.ROOT);
+        return normalized.endsWith(".") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+
+    private static boolean isIpLiteral(String host) {
+        if (host.indexOf(':') >= 0 || host.startsWith("[")) return true;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) return false;
+        }
+        return true;
+    }
+
+    private static class CanonicalName {
+
+        private final String name;
+        private final long expirationTime;
+
+        private CanonicalName(String name, long expirationTime) {
+            this.name = name;
+            this.expirationTime = expirationTime;
+        }
+
+    }
+
+}
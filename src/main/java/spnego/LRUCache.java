@@ -13,7 +13,7 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
     }
 
     protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-        return size() >= cacheSize;
+        return size() > cacheSize;
     }
 
 }
\ No newline at end of file
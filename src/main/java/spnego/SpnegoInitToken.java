@@ -30,6 +30,29 @@ public class SpnegoInitToken extends KrbSequenceType {
             new ExplicitField(MECH_LIST_MIC, Asn1OctetString.class),
     };
 
+    private static final byte[] SPNEGO_MECHANISM_OID =
+            SpnegoKerberosMechToken.encodeObjectIdentifier(SpnegoProvider.SPNEGO_MECHANISM);
+
+    private static final byte[] KERBEROS_MECH_TYPES = DerWriter.encode(DerWriter.context(MECH_TYPES.getValue()),
+            DerWriter.encode(DerWriter.SEQUENCE,
+                    SpnegoKerberosMechToken.encodeObjectIdentifier(SpnegoProvider.KERBEROS_MECHANISM)));
+
+    /**
+     * Wraps a Kerberos V5 InitialContextToken into a SPNEGO NegTokenInit offering Kerberos V5 only.
+     *
+     * @param kerberosMechToken encoded token, see {@link SpnegoKerberosMechToken#encode(byte[])}
+     * @return encoded SPNEGO token
+     */
+    public static byte[] encode(byte[] kerberosMechToken) {
+        byte[] negTokenInit = DerWriter.encode(DerWriter.SEQUENCE,
+                KERBEROS_MECH_TYPES,
+                DerWriter.encode(DerWriter.context(MECH_TOKEN.getValue()),
+                        DerWriter.encode(DerWriter.OCTET_STRING, kerberosMechToken)));
+        return DerWriter.encode(DerWriter.APPLICATION_0,
+                SPNEGO_MECHANISM_OID,
+                DerWriter.encode(DerWriter.context(0), negTokenInit));
+    }
+
     // TODO: add KerberosKey[] parameter here
     public SpnegoInitToken(byte[] token) throws Kerb4JException {
 
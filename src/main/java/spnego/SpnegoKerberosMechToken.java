@@ -10,6 +10,7 @@ import org.apache.kerby.kerberos.kerb.crypto.EncryptionHandler;
 import org.apache.kerby.kerberos.kerb.type.ad.AuthorizationData;
 import org.apache.kerby.kerberos.kerb.type.ad.AuthorizationDataEntry;
 import org.apache.kerby.kerberos.kerb.type.ap.ApReq;
+import org.apache.kerby.kerberos.kerb.type.ap.Authenticator;
 import org.apache.kerby.kerberos.kerb.type.base.EncryptedData;
 import org.apache.kerby.kerberos.kerb.type.base.EncryptionType;
 import org.apache.kerby.kerberos.kerb.type.base.KeyUsage;
@@ -40,6 +41,19 @@ import java.util.List;
  */
 public class SpnegoKerberosMechToken {
 
+    /** TOK_ID of a KRB_AP_REQ, see RFC 1964 section 1.1.1 */
+    private static final byte[] TOK_ID_AP_REQ = new byte[]{0x01, 0x00};
+
+    /** TOK_ID of a KRB_ERROR, see RFC 1964 section 1.1 */
+    private static final byte[] TOK_ID_KRB_ERROR = new byte[]{0x03, 0x00};
+
+    /** DER tag of KRB-ERROR, [APPLICATION 30] */
+    private static final int KRB_ERROR_TAG = 0x7E;
+
+    private static final byte[] KERBEROS_MECHANISM_OID = encodeObjectIdentifier(SpnegoProvider.KERBEROS_MECHANISM);
+
+    private static final byte[] LEGACY_KERBEROS_MECHANISM_OID = encodeObjectIdentifier(SpnegoProvider.LEGACY_KERBEROS_MECHANISM);
+
     private ApReq apRequest;
 
     public SpnegoKerberosMechToken(byte[] token) throws Kerb4JException {
@@ -79,6 +93,51 @@ public class SpnegoKerberosMechToken {
         }
     }
 
+    /**
+     * Frames an encoded AP-REQ as a Kerberos V5 InitialContextToken.
+     *
+     * @param apReq DER encoded KRB_AP_REQ
+     * @return encoded token
+     */
+    public static byte[] encode(byte[] apReq) {
+        return DerWriter.encode(DerWriter.APPLICATION_0, KERBEROS_MECHANISM_OID, TOK_ID_AP_REQ, apReq);
+    }
+
+    /**
+     * Tells whether a token sent back by an acceptor carries a KRB-ERROR, i.e. the acceptor could
+     * not use the ticket, as opposed to an AP-REP which means the ticket was accepted.
+     *
+     * @param token SPNEGO NegTokenResp, Kerberos V5 token or bare KRB-ERROR
+     */
+    public static boolean isKrbError(byte[] token) {
+        if (token.length > 0 && KRB_ERROR_TAG == (token[0] & 0xFF)) return true;
+        // the Kerberos token is nested in the NegTokenResp, its OID is followed by the TOK_ID
+        return indexOf(token, KERBEROS_MECHANISM_OID, TOK_ID_KRB_ERROR) >= 0
+                || indexOf(token, LEGACY_KERBEROS_MECHANISM_OID, TOK_ID_KRB_ERROR) >= 0;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] prefix, byte[] suffix) {
+        outer:
+        for (int i = 0; i <= bytes.length - prefix.length - suffix.length; i++) {
+            for (int j = 0; j < prefix.length; j++) {
+                if (bytes[i + j] != prefix[j]) continue outer;
+            }
+            for (int j = 0; j < suffix.length; j++) {
+                if (bytes[i + prefix.length + j] != suffix[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static byte[] encodeObjectIdentifier(String oid) {
+        try {
+            return new Asn1ObjectIdentifier(oid).encode();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode OID " + oid, e);
+        }
+    }
+
     public ApReq getApRequest() {
         return apRequest;
     }
@@ -107,13 +166,54 @@ public class SpnegoKerberosMechToken {
 
     }
 
+    /**
+     * Decrypts the ticket with the key of the service matching its encryption type.
+     */
+    public EncTicketPart getEncryptedTicketPart(KerberosKey[] kerberosKeys) throws KrbException {
+
+        EncryptedData encryptedData = getApRequest().getTicket().getEncryptedEncPart();
+        KerberosKey kerberosKey = getKerberosKey(encryptedData.getEType(), kerberosKeys);
+        if (null == kerberosKey) throw new KrbException("No key for " + encryptedData.getEType());
+        return getEncryptedTicketPart(encryptedData.getCipher(), kerberosKey);
+
+    }
+
+    /**
+     * Returns the end time of the ticket, in milliseconds. JGSS does not expose it, the lifetime
+     * of an accepted context is always indefinite.
+     */
+    public long getTicketEndTime(KerberosKey[] kerberosKeys) throws KrbException {
+        return getEncryptedTicketPart(kerberosKeys).getEndTime().getTime();
+    }
+
+    /**
+     * Returns the client time of the authenticator, which only the client and the service can
+     * decrypt, in milliseconds.
+     */
+    public long getAuthenticatorTime(KerberosKey[] kerberosKeys) throws KrbException {
+
+        EncTicketPart ticketPart = getEncryptedTicketPart(kerberosKeys);
+
+        Authenticator authenticator = KrbCodec.decode(EncryptionHandler.decrypt(
+                getApRequest().getEncryptedAuthenticator(), ticketPart.getKey(), KeyUsage.AP_REQ_AUTH), Authenticator.class);
+
+        return authenticator.getCtime().getTime() + authenticator.getCusec() / 1000;
+
+    }
+
     public Pac getPac(KerberosKey[] kerberosKeys) throws KrbException, Kerb4JException {
+        return getPac(getEncryptedTicketPart(kerberosKeys), kerberosKeys);
+    }
+
+    /**
+     * Returns the PAC of an already decrypted ticket, or null if it carries none.
+     */
+    public Pac getPac(EncTicketPart ticketPart, KerberosKey[] kerberosKeys) throws KrbException, Kerb4JException {
 
         EncryptedData encryptedData = getApRequest().getTicket().getEncryptedEncPart();
         KerberosKey kerberosKey = getKerberosKey(encryptedData.getEType(), kerberosKeys);
-        EncTicketPart tgsRep = getEncryptedTicketPart(encryptedData.getCipher(), kerberosKey);
 
-        AuthorizationData authorizationData = tgsRep.getAuthorizationData();
+        AuthorizationData authorizationData = ticketPart.getAuthorizationData();
         if (null == authorizationData) return null;
 
         List<AuthorizationDataEntry> authorizationDataEntries = authorizationData.getElements();
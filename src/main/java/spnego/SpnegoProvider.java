@@ -28,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import javax.security.auth.callback.*;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This is a Utility Class that can be used for finer grained control 
@@ -68,6 +70,12 @@ public final class SpnegoProvider {
 	 */
     public static final Oid[] SUPPORTED_OIDS = new Oid[]{SPNEGO_OID, KERBEROS_V5_OID};
 
+    /** Upper bound of {@link #SERVER_NAME_CACHE}; the cache is simply dropped when it is reached. */
+    private static final int SERVER_NAME_CACHE_SIZE = 1024;
+
+    /** Mechanism names by host based service name, i.e. "HTTP@host". {@link GSSName} is immutable. */
+    private static final ConcurrentMap<String, GSSName> SERVER_NAME_CACHE = new ConcurrentHashMap<>();
+
     /*
      * This is a utility class (not a Singleton).
      */
@@ -139,25 +147,48 @@ public final class SpnegoProvider {
 
     /**
      * Returns the {@link GSSName} constructed out of the passed-in SPN
+     * with its host mapped by {@link HostNameCanonicalizer#getDefault()}, which applies aliases only
+     * unless DNS resolution has been enabled.
      * 
      * @param spn
      * @return GSSName of URL.
      */
     public static GSSName createGSSNameForSPN(String spn) throws GSSException {
-        return GSS_MANAGER.createName(spn.replaceAll("/","@"),
-                GSSName.NT_HOSTBASED_SERVICE, SpnegoProvider.SPNEGO_OID);
+        return getHostBasedServiceName(HostNameCanonicalizer.getDefault().canonicalizeSPN(spn).replace('/', '@'));
     }
 
     /**
      * Returns the {@link GSSName} constructed out of the passed-in
-     * URL object.
+     * URL object with its host mapped by {@link HostNameCanonicalizer#getDefault()}.
      *
      * @param url HTTP address of server
      * @return GSSName of URL.
      */
     public static GSSName getServerName(final URL url) throws GSSException {
-        return GSS_MANAGER.createName("HTTP@" + url.getHost(),
-            GSSName.NT_HOSTBASED_SERVICE, SpnegoProvider.SPNEGO_OID);
+        return getHostBasedServiceName("HTTP@" + HostNameCanonicalizer.getDefault().canonicalize(url.getHost()));
+    }
+
+    /**
+     * Returns the cached mechanism name for the passed-in host based service name
+     * creating it on first use.
+     *
+     * @param serviceName service@host
+     * @return GSSName of the service
+     */
+    private static GSSName getHostBasedServiceName(final String serviceName) throws GSSException {
+
+        GSSName gssName = SERVER_NAME_CACHE.get(serviceName);
+
+        if (null == gssName) {
+            gssName = GSS_MANAGER.createName(serviceName,
+                    GSSName.NT_HOSTBASED_SERVICE, SpnegoProvider.SPNEGO_OID);
+            if (SERVER_NAME_CACHE.size() >= SERVER_NAME_CACHE_SIZE) {
+                SERVER_NAME_CACHE.clear();
+            }
+            SERVER_NAME_CACHE.putIfAbsent(serviceName, gssName);
+        }
+
+        return gssName;
     }
 
     /**
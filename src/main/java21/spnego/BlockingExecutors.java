@@ -0,0 +1,43 @@
+package spnego;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for tasks which mostly wait, e.g. for a KDC, a JAAS login or a JGSS context.
+ *
+ * <p>
+ * This is the Java 21 version of the multi-release jar: every task runs on its own virtual
+ * thread, which releases its carrier while waiting. The public API must match the Java 8
+ * version in {@code src/main/java}.
+ * </p>
+ */
+public final class BlockingExecutors {
+
+    private BlockingExecutors() {
+        // default private
+    }
+
+    /**
+     * @return whether tasks run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Creates an executor running every task on a new virtual thread.
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix + "-", 1).factory());
+    }
+
+    /**
+     * Creates an executor running at most the given number of tasks at a time, each on its own
+     * virtual thread; further tasks are queued.
+     */
+    public static ExecutorService newExecutor(String namePrefix, int threads) {
+        return Executors.newFixedThreadPool(threads, Thread.ofVirtual().name(namePrefix + "-", 1).factory());
+    }
+
+}
@@ -0,0 +1,57 @@
+package client;
+
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+public class CredentialLifecycleTest {
+
+    @Test
+    public void normalizesServiceNames() {
+        assertEquals("HTTP/web.example.com", CredentialLifecycle.toKey("HTTP/web.example.com"));
+        assertEquals("HTTP/web.example.com", CredentialLifecycle.toKey("HTTP/web.example.com@EXAMPLE.COM"));
+        assertEquals("HTTP/web.example.com", CredentialLifecycle.toKey("HTTP@web.example.com"));
+        assertEquals("HTTP/web.example.com", CredentialLifecycle.toKey("HTTP@web.example.com@EXAMPLE.COM"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTickets() throws InterruptedException {
+
+        CredentialLifecycle lifecycle = new CredentialLifecycle();
+        lifecycle.setMaxServiceTickets(2);
+
+        Subject subject = new Subject();
+        subject.getPrivateCredentials().add(serviceTicket("HTTP/a.example.com@EXAMPLE.COM"));
+        subject.getPrivateCredentials().add(serviceTicket("HTTP/b.example.com@EXAMPLE.COM"));
+        lifecycle.touch("HTTP@a.example.com@EXAMPLE.COM");
+        Thread.sleep(1);
+        lifecycle.touch("HTTP/b.example.com");
+        lifecycle.trimIfChanged(subject);
+        assertEquals(2, subject.getPrivateCredentials().size());
+
+        Thread.sleep(1);
+        lifecycle.touch("HTTP@a.example.com");
+        subject.getPrivateCredentials().add(serviceTicket("HTTP/c.example.com@EXAMPLE.COM"));
+        lifecycle.touch("HTTP/c.example.com@EXAMPLE.COM");
+        lifecycle.trimIfChanged(subject);
+
+        assertEquals(2, subject.getPrivateCredentials().size());
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            assertEquals(false, ticket.getServer().getName().startsWith("HTTP/b."));
+        }
+
+    }
+
+    private static KerberosTicket serviceTicket(String server) {
+        long now = System.currentTimeMillis();
+        return new KerberosTicket(new byte[1], new KerberosPrincipal("alice@EXAMPLE.COM"),
+                new KerberosPrincipal(server), new byte[16], 17, null,
+                new Date(now), new Date(now), new Date(now + 3600000), null, null);
+    }
+
+}
@@ -0,0 +1,34 @@
+package client;
+
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.util.Date;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpnegoClientTest {
+
+    @Test
+    public void findsServiceTicketOfTarget() {
+        Subject subject = new Subject();
+        subject.getPrivateCredentials().add(serviceTicket("HTTP/web.example.com@EXAMPLE.COM", 3600000));
+        subject.getPrivateCredentials().add(serviceTicket("HTTP/old.example.com@EXAMPLE.COM", -1000));
+
+        assertTrue(SpnegoClient.hasServiceTicket(subject, "HTTP@web.example.com"));
+        assertTrue(SpnegoClient.hasServiceTicket(subject, "HTTP/web.example.com@EXAMPLE.COM"));
+        assertFalse(SpnegoClient.hasServiceTicket(subject, "HTTP@web.example.co"));
+        assertFalse(SpnegoClient.hasServiceTicket(subject, "HTTP@old.example.com"));
+    }
+
+    private static KerberosTicket serviceTicket(String server, long lifetimeMillis) {
+        long now = System.currentTimeMillis();
+        return new KerberosTicket(new byte[1], new KerberosPrincipal("alice@EXAMPLE.COM"),
+                new KerberosPrincipal(server), new byte[16], 17, null,
+                new Date(now - 7200000), new Date(now - 7200000), new Date(now + lifetimeMillis), null, null);
+    }
+
+}
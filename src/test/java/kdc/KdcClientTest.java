@@ -0,0 +1,211 @@
+package kdc;
+
+import org.apache.kerby.kerberos.kerb.KrbCodec;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+import org.apache.kerby.kerberos.kerb.type.kdc.KdcOption;
+import org.apache.kerby.kerberos.kerb.type.kdc.TgsReq;
+import org.apache.kerby.kerberos.kerb.type.pa.PaDataEntry;
+import org.apache.kerby.kerberos.kerb.type.pa.PaDataType;
+import org.apache.kerby.util.NetworkUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the exchanges of {@link KdcClient} against an in-process Kerby KDC over TCP.
+ */
+public class KdcClientTest {
+
+    private static final String REALM = "EXAMPLE.COM";
+    private static final String PASSWORD = "secret";
+
+    @ClassRule
+    public static final TemporaryFolder WORK_DIR = new TemporaryFolder();
+
+    private static SimpleKdcServer kdc;
+    private static TcpKdcConnection connection;
+    private static KdcClient client;
+
+    @BeforeClass
+    public static void startKdc() throws Exception {
+        kdc = new SimpleKdcServer();
+        kdc.setWorkDir(WORK_DIR.getRoot());
+        kdc.setKdcRealm(REALM);
+        kdc.setKdcHost("localhost");
+        kdc.setAllowUdp(false);
+        kdc.setKdcTcpPort(NetworkUtil.getServerPort());
+        kdc.init();
+        kdc.start();
+        kdc.createPrincipal("alice", PASSWORD);
+        kdc.createPrincipal("HTTP/web.example.com", PASSWORD);
+        connection = new TcpKdcConnection(new InetSocketAddress("localhost", kdc.getKdcTcpPort()));
+        client = new KdcClient(connection);
+    }
+
+    @AfterClass
+    public static void stopKdc() throws Exception {
+        connection.close();
+        kdc.stop();
+    }
+
+    @Test
+    public void requestsTgt() throws Exception {
+        KerberosTicket tgt = login("alice");
+        assertEquals(new KerberosPrincipal("alice@" + REALM), tgt.getClient());
+        assertEquals(new KerberosPrincipal("krbtgt/" + REALM + "@" + REALM), tgt.getServer());
+        assertTrue(tgt.isRenewable());
+    }
+
+    @Test
+    public void rejectsWrongKey() throws Exception {
+        KerberosPrincipal alice = new KerberosPrincipal("alice@" + REALM);
+        try {
+            client.requestTgt(alice, new KerberosKey[]{
+                    new KerberosKey(alice, "wrong".toCharArray(), "AES128")});
+            fail("TGT issued for a wrong key");
+        } catch (KrbException expected) {
+            // pre-authentication failed
+        }
+    }
+
+    @Test
+    public void requestsServiceTicket() throws Exception {
+        KerberosTicket ticket = client.requestServiceTicket(login("alice"), "HTTP/web.example.com");
+        assertEquals(new KerberosPrincipal("alice@" + REALM), ticket.getClient());
+        assertEquals(new KerberosPrincipal("HTTP/web.example.com@" + REALM), ticket.getServer());
+    }
+
+    @Test
+    public void renewsTgt() throws Exception {
+        KerberosTicket tgt = login("alice");
+        KerberosTicket renewed = client.renew(tgt);
+        assertEquals(tgt.getClient(), renewed.getClient());
+        assertEquals(tgt.getServer(), renewed.getServer());
+        assertFalse(renewed.getEndTime().before(tgt.getEndTime()));
+    }
+
+    /**
+     * Kerby does not implement S4U and answers with a ticket for the service itself, so only the
+     * requests are checked here.
+     */
+    @Test
+    public void sendsS4URequests() throws Exception {
+
+        RecordingTransport transport = new RecordingTransport(connection);
+        KdcClient s4uClient = new KdcClient(transport);
+        KerberosPrincipal service = new KerberosPrincipal("HTTP/web.example.com@" + REALM);
+        KerberosTicket tgt = s4uClient.requestTgt(service, new KerberosKey[]{
+                new KerberosKey(service, PASSWORD.toCharArray(), "AES128")});
+
+        KerberosTicket evidence = s4uClient.requestS4U2SelfTicket(tgt, new KerberosPrincipal("alice@" + REALM));
+        TgsReq selfRequest = KrbCodec.decode(transport.lastRequest, TgsReq.class);
+        PaDataEntry forUser = selfRequest.getPaData().findEntry(PaDataType.FOR_USER);
+        assertNotNull(forUser);
+        String paForUser = new String(forUser.getPaDataValue(), StandardCharsets.ISO_8859_1);
+        assertTrue(paForUser.contains("alice"));
+        assertTrue(paForUser.contains(REALM));
+        assertTrue(paForUser.contains("Kerberos"));
+        assertEquals("HTTP/web.example.com", selfRequest.getReqBody().getSname().getName());
+
+        s4uClient.requestProxyTicket(tgt, evidence, "HTTP/web.example.com");
+        TgsReq proxyRequest = KrbCodec.decode(transport.lastRequest, TgsReq.class);
+        assertTrue(proxyRequest.getReqBody().getKdcOptions().isFlagSet(KdcOption.CNAME_IN_ADDL_TKT));
+        assertEquals(1, proxyRequest.getReqBody().getAdditionalTickets().getElements().size());
+
+    }
+
+    @Test
+    public void timesOutWithoutReply() throws Exception {
+        KdcClient silentClient = new KdcClient(new KdcTransport() {
+            @Override
+            public CompletableFuture<byte[]> send(byte[] request) {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        silentClient.setExchangeTimeoutMillis(100);
+        KerberosPrincipal alice = new KerberosPrincipal("alice@" + REALM);
+        try {
+            silentClient.requestTgt(alice, new KerberosKey[]{new KerberosKey(alice, PASSWORD.toCharArray(), "AES128")});
+            fail("No timeout");
+        } catch (KrbException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void servesConcurrentRequests() throws Exception {
+        final KerberosTicket tgt = login("alice");
+        Thread[] threads = new Thread[8];
+        final Throwable[] failures = new Throwable[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; j++) {
+                            client.requestServiceTicket(tgt, "HTTP/web.example.com");
+                        }
+                    } catch (Throwable e) {
+                        failures[index] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (null != failures[i]) throw new AssertionError(failures[i]);
+        }
+    }
+
+    private static final class RecordingTransport implements KdcTransport {
+
+        private final KdcTransport transport;
+        private volatile byte[] lastRequest;
+
+        private RecordingTransport(KdcTransport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> send(byte[] request) {
+            lastRequest = request;
+            return transport.send(request);
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+
+    }
+
+    private static KerberosTicket login(String name) throws KrbException {
+        KerberosPrincipal principal = new KerberosPrincipal(name + "@" + REALM);
+        return client.requestTgt(principal, new KerberosKey[]{
+                new KerberosKey(principal, PASSWORD.toCharArray(), "AES128")});
+    }
+
+}
@@ -0,0 +1,136 @@
+package kdc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TcpKdcConnectionTest {
+
+    private EchoKdc kdc;
+    private TcpKdcConnection connection;
+
+    @After
+    public void close() throws IOException {
+        if (null != connection) connection.close();
+        if (null != kdc) kdc.close();
+    }
+
+    /**
+     * MIT and Active Directory KDCs close the connection after each reply.
+     */
+    @Test
+    public void answersConcurrentRequestsOfClosingKdc() throws Exception {
+        kdc = new EchoKdc(true);
+        connection = new TcpKdcConnection(kdc.getAddress());
+        sendConcurrently(50);
+    }
+
+    @Test
+    public void reusesConnectionOfPersistentKdc() throws Exception {
+        kdc = new EchoKdc(false);
+        connection = new TcpKdcConnection(kdc.getAddress());
+        for (int i = 0; i < 20; i++) {
+            byte[] request = ("request-" + i).getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(request, connection.send(request).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, kdc.connections.get());
+    }
+
+    @Test
+    public void answersConcurrentRequestsOfPersistentKdc() throws Exception {
+        kdc = new EchoKdc(false);
+        connection = new TcpKdcConnection(kdc.getAddress());
+        sendConcurrently(50);
+    }
+
+    private void sendConcurrently(int count) throws Exception {
+        List<byte[]> requests = new ArrayList<>();
+        List<CompletableFuture<byte[]>> replies = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] request = ("request-" + i).getBytes(StandardCharsets.UTF_8);
+            requests.add(request);
+            replies.add(connection.send(request));
+        }
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(requests.get(i), replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Answers every request with the request itself, one request at a time per connection.
+     */
+    private static final class EchoKdc implements Runnable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final boolean closeAfterReply;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private EchoKdc(boolean closeAfterReply) throws IOException {
+            this.closeAfterReply = closeAfterReply;
+            Thread thread = new Thread(this, "echo-kdc");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private InetSocketAddress getAddress() {
+            return new InetSocketAddress("localhost", serverSocket.getLocalPort());
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket closed = socket) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                do {
+                    byte[] request = new byte[in.readInt()];
+                    in.readFully(request);
+                    out.writeInt(request.length);
+                    out.write(request);
+                    out.flush();
+                } while (!closeAfterReply);
+            } catch (IOException e) {
+                // client closed the connection
+            }
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+package server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the protocol over loopback. Validations are held by the executor until the test runs
+ * them, and fail since the acceptor has no credentials, so every token is rejected.
+ */
+public class BinaryValidationServerTest {
+
+    private final BlockingQueue<Runnable> validations = new LinkedBlockingQueue<>();
+
+    private BinaryValidationServer server;
+    private Socket socket;
+    private DataOutputStream out;
+    private DataInputStream in;
+
+    @Before
+    public void start() throws IOException {
+        server = BinaryValidationServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new SpnegoAcceptor(null), new Executor() {
+                    @Override
+                    public void execute(Runnable validation) {
+                        validations.add(validation);
+                    }
+                });
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort());
+        socket.setSoTimeout(5000);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    @After
+    public void stop() throws IOException {
+        socket.close();
+        server.close();
+    }
+
+    @Test
+    public void answersPipelinedRequestsOutOfOrder() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            writeRequest(i, new byte[100 + i]);
+        }
+        out.flush();
+
+        Runnable[] held = new Runnable[10];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = takeValidation();
+        }
+        for (int i = held.length - 1; i >= 0; i--) {
+            held[i].run();
+        }
+
+        for (int i = held.length - 1; i >= 0; i--) {
+            assertEquals(i, readRejection());
+        }
+
+    }
+
+    @Test
+    public void stopsReadingAtMaxInFlight() throws Exception {
+
+        int count = BinaryValidationServer.MAX_IN_FLIGHT + 10;
+        for (int i = 0; i < count; i++) {
+            writeRequest(i, new byte[16]);
+        }
+        out.flush();
+
+        Runnable[] held = new Runnable[BinaryValidationServer.MAX_IN_FLIGHT];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = takeValidation();
+        }
+        assertNull(validations.poll(200, TimeUnit.MILLISECONDS));
+
+        // one response frees one slot, the next buffered request is dispatched
+        held[0].run();
+        assertEquals(0, readRejection());
+        Runnable next = takeValidation();
+        assertNull(validations.poll(200, TimeUnit.MILLISECONDS));
+
+        next.run();
+        for (int i = 1; i < held.length; i++) {
+            held[i].run();
+        }
+        for (int i = held.length + 1; i < count; i++) {
+            takeValidation().run();
+        }
+        for (int i = 1; i < count; i++) {
+            readRejection();
+        }
+        assertNull(validations.poll());
+
+    }
+
+    /**
+     * Responses the client does not read count against the in-flight limit, so the server stops
+     * reading requests once the socket buffers are full instead of queueing responses.
+     */
+    @Test
+    public void stopsReadingWhileResponsesAreNotTaken() throws Exception {
+
+        final int count = 1000000;
+        Socket idleReader = new Socket();
+        idleReader.setReceiveBufferSize(4096);
+        idleReader.connect(server.getAddress());
+        final DataOutputStream idleOut = new DataOutputStream(new BufferedOutputStream(idleReader.getOutputStream()));
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        idleOut.writeInt(8);
+                        idleOut.writeLong(i);
+                    }
+                    idleOut.flush();
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+
+        int validated = 0;
+        Runnable validation;
+        while (null != (validation = validations.poll(500, TimeUnit.MILLISECONDS))) {
+            validation.run();
+            validated++;
+        }
+        assertTrue("Validated " + validated + " of " + count, validated < count);
+
+        idleReader.close();
+
+    }
+
+    @Test
+    public void acceptsFrameOfMaxLength() throws Exception {
+        writeRequest(7, new byte[BinaryValidationServer.MAX_FRAME_LENGTH - 8]);
+        out.flush();
+        takeValidation().run();
+        assertEquals(7, readRejection());
+    }
+
+    @Test
+    public void closesConnectionOnOversizedFrame() throws Exception {
+        out.writeInt(BinaryValidationServer.MAX_FRAME_LENGTH + 1);
+        out.writeLong(1);
+        out.flush();
+        try {
+            assertEquals(-1, in.read());
+        } catch (IOException e) {
+            // reset instead of closed
+        }
+        assertNull(validations.poll());
+    }
+
+    private void writeRequest(long correlationId, byte[] token) throws IOException {
+        out.writeInt(8 + token.length);
+        out.writeLong(correlationId);
+        out.write(token);
+    }
+
+    private Runnable takeValidation() throws InterruptedException {
+        Runnable validation = validations.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No validation dispatched", validation);
+        return validation;
+    }
+
+    /**
+     * @return correlation id of the response, which must be a rejection
+     */
+    private long readRejection() throws IOException {
+        assertEquals(9, in.readInt());
+        long correlationId = in.readLong();
+        assertEquals(BinaryValidationServer.STATUS_REJECTED, in.readByte());
+        return correlationId;
+    }
+
+}
@@ -0,0 +1,80 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SessionTokenCodecTest {
+
+    private static final byte[] SECRET = new byte[32];
+
+    private static final byte[] OTHER_SECRET = new byte[32];
+
+    static {
+        Arrays.fill(SECRET, (byte) 1);
+        Arrays.fill(OTHER_SECRET, (byte) 2);
+    }
+
+    private static final List<String> GROUP_SIDS = Arrays.asList(
+            "S-1-5-21-3623811015-3361044348-30300820-513", "S-1-5-32-545");
+
+    private final SessionTokenCodec codec = new SessionTokenCodec("k1", SECRET);
+
+    @Test
+    public void verifiesIssuedToken() throws Exception {
+        long expirationTime = System.currentTimeMillis() + 60000;
+        SpnegoIdentity identity = codec.verify(codec.issue("alice@EXAMPLE.COM", GROUP_SIDS, expirationTime));
+        assertNotNull(identity);
+        assertEquals("alice@EXAMPLE.COM", identity.getName());
+        assertEquals(GROUP_SIDS, identity.getGroupSids());
+        assertEquals(expirationTime, identity.getExpirationTime());
+    }
+
+    @Test
+    public void rejectsExpiredToken() {
+        assertNull(codec.verify(codec.issue("alice@EXAMPLE.COM", GROUP_SIDS, System.currentTimeMillis() - 1)));
+    }
+
+    @Test
+    public void rejectsTamperedToken() {
+        String token = codec.issue("alice@EXAMPLE.COM", GROUP_SIDS, System.currentTimeMillis() + 60000);
+        String tampered = new SessionTokenCodec("k1", OTHER_SECRET)
+                .issue("alice@EXAMPLE.COM", Collections.<String>emptyList(), System.currentTimeMillis() + 60000);
+        assertNull(codec.verify(tampered.substring(0, tampered.indexOf('.')) + token.substring(token.indexOf('.'))));
+        assertNull(codec.verify(tampered));
+        assertNull(codec.verify("no separator"));
+    }
+
+    @Test
+    public void acceptsOldKeyUntilRemoved() {
+        String token = codec.issue("alice@EXAMPLE.COM", GROUP_SIDS, System.currentTimeMillis() + 60000);
+        codec.addKey("k2", OTHER_SECRET);
+        codec.useKey("k2");
+        assertNotNull(codec.verify(token));
+        codec.removeKey("k1");
+        assertNull(codec.verify(token));
+    }
+
+    @Test
+    public void sessionEndsWithTicket() throws Exception {
+        long now = System.currentTimeMillis();
+        long ticketEndTime = now + TimeUnit.MINUTES.toMillis(10);
+        SpnegoIdentity identity = new SpnegoIdentity("alice@EXAMPLE.COM", GROUP_SIDS, ticketEndTime);
+
+        long expirationTime = SpnegoAuthenticationFilter.sessionExpirationTime(identity, now, TimeUnit.HOURS.toMillis(1));
+        assertEquals(ticketEndTime, expirationTime);
+        assertEquals(ticketEndTime, codec.verify(codec.issue(identity.getName(), identity.getGroupSids(),
+                expirationTime)).getExpirationTime());
+
+        assertEquals(now + TimeUnit.MINUTES.toMillis(5),
+                SpnegoAuthenticationFilter.sessionExpirationTime(identity, now, TimeUnit.MINUTES.toMillis(5)));
+    }
+
+}
@@ -0,0 +1,133 @@
+package server;
+
+import kdc.KdcClient;
+import kdc.TcpKdcConnection;
+import org.apache.kerby.kerberos.kerb.KrbCodec;
+import org.apache.kerby.kerberos.kerb.crypto.EncryptionHandler;
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+import org.apache.kerby.kerberos.kerb.type.KerberosTime;
+import org.apache.kerby.kerberos.kerb.type.ap.ApOptions;
+import org.apache.kerby.kerberos.kerb.type.ap.ApReq;
+import org.apache.kerby.kerberos.kerb.type.ap.Authenticator;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionKey;
+import org.apache.kerby.kerberos.kerb.type.base.EncryptionType;
+import org.apache.kerby.kerberos.kerb.type.base.KeyUsage;
+import org.apache.kerby.kerberos.kerb.type.base.PrincipalName;
+import org.apache.kerby.kerberos.kerb.type.ticket.Ticket;
+import org.apache.kerby.util.NetworkUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import spnego.Kerb4JException;
+import spnego.SpnegoKerberosMechToken;
+
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Decrypts tickets issued by an in-process Kerby KDC.
+ */
+public class TicketPacTest {
+
+    private static final String REALM = "EXAMPLE.COM";
+    private static final String PASSWORD = "secret";
+    private static final String SERVICE = "HTTP/web.example.com";
+
+    @ClassRule
+    public static final TemporaryFolder WORK_DIR = new TemporaryFolder();
+
+    private static SimpleKdcServer kdc;
+    private static TcpKdcConnection connection;
+    private static KdcClient client;
+    private static KerberosKey[] serviceKeys;
+
+    @BeforeClass
+    public static void startKdc() throws Exception {
+        kdc = new SimpleKdcServer();
+        kdc.setWorkDir(WORK_DIR.getRoot());
+        kdc.setKdcRealm(REALM);
+        kdc.setKdcHost("localhost");
+        kdc.setAllowUdp(false);
+        kdc.setKdcTcpPort(NetworkUtil.getServerPort());
+        kdc.init();
+        kdc.start();
+        kdc.createPrincipal("alice", PASSWORD);
+        kdc.createPrincipal(SERVICE, PASSWORD);
+        connection = new TcpKdcConnection(new InetSocketAddress("localhost", kdc.getKdcTcpPort()));
+        client = new KdcClient(connection);
+        KerberosPrincipal service = new KerberosPrincipal(SERVICE + "@" + REALM);
+        serviceKeys = new KerberosKey[]{
+                new KerberosKey(service, PASSWORD.toCharArray(), "AES128"),
+                new KerberosKey(service, PASSWORD.toCharArray(), "AES256"),
+                new KerberosKey(service, PASSWORD.toCharArray(), "DESede"),
+                new KerberosKey(service, PASSWORD.toCharArray(), "ArcFourHmac")};
+    }
+
+    @AfterClass
+    public static void stopKdc() throws Exception {
+        connection.close();
+        kdc.stop();
+    }
+
+    @Test
+    public void readsTicketEndTime() throws Exception {
+        KerberosTicket ticket = serviceTicket();
+        TicketPac ticketPac = new TicketPac(token(ticket), null, serviceKeys);
+        assertEquals(ticket.getEndTime().getTime(), ticketPac.getEndTime());
+        // Kerby issues tickets without PAC
+        assertNull(ticketPac.get());
+    }
+
+    @Test
+    public void failsWithoutServiceKey() throws Exception {
+        KerberosPrincipal service = new KerberosPrincipal(SERVICE + "@" + REALM);
+        TicketPac ticketPac = new TicketPac(token(serviceTicket()), null, new KerberosKey[]{
+                new KerberosKey(service, "wrong".toCharArray(), "AES128")});
+        try {
+            ticketPac.getEndTime();
+            fail("Ticket decrypted with a wrong key");
+        } catch (Kerb4JException expected) {
+            // no matching key or decryption failed
+        }
+    }
+
+    private static KerberosTicket serviceTicket() throws Exception {
+        KerberosPrincipal alice = new KerberosPrincipal("alice@" + REALM);
+        KerberosTicket tgt = client.requestTgt(alice, new KerberosKey[]{
+                new KerberosKey(alice, PASSWORD.toCharArray(), "AES128")});
+        return client.requestServiceTicket(tgt, SERVICE);
+    }
+
+    /**
+     * Frames the ticket as a Kerberos token, as JGSS would send it.
+     */
+    private static byte[] token(KerberosTicket ticket) throws Exception {
+
+        Authenticator authenticator = new Authenticator();
+        authenticator.setAuthenticatorVno(5);
+        authenticator.setCname(new PrincipalName("alice"));
+        authenticator.setCrealm(REALM);
+        authenticator.setCtime(KerberosTime.now());
+        authenticator.setCusec(0);
+
+        EncryptionKey sessionKey = new EncryptionKey(EncryptionType.fromValue(ticket.getSessionKeyType()),
+                ticket.getSessionKey().getEncoded());
+
+        ApReq apReq = new ApReq();
+        apReq.setApOptions(new ApOptions());
+        apReq.setTicket(KrbCodec.decode(ticket.getEncoded(), Ticket.class));
+        apReq.setEncryptedAuthenticator(EncryptionHandler.encrypt(authenticator.encode(), sessionKey, KeyUsage.AP_REQ_AUTH));
+
+        return SpnegoKerberosMechToken.encode(apReq.encode());
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package spnego;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentTtlCacheTest {
+
+    private static final ConcurrentTtlCache.Weigher<String> LENGTH = new ConcurrentTtlCache.Weigher<String>() {
+        @Override
+        public long weigh(String value) {
+            return value.length();
+        }
+    };
+
+    @Test
+    public void evictsLeastRecentlyRead() {
+        ConcurrentTtlCache<String, String> cache =
+                new ConcurrentTtlCache<>(3, Long.MAX_VALUE, Long.MAX_VALUE, null, null);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.getIfPresent("a");
+        cache.put("d", "4");
+
+        assertEquals("1", cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("3", cache.getIfPresent("c"));
+        assertEquals("4", cache.getIfPresent("d"));
+        assertEquals(1, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void evictsUntilWithinWeight() {
+        ConcurrentTtlCache<String, String> cache =
+                new ConcurrentTtlCache<>(Long.MAX_VALUE, 10, Long.MAX_VALUE, null, LENGTH);
+        cache.put("a", "xxxx");
+        cache.put("b", "xxxx");
+        cache.put("c", "xxxxxxxx");
+
+        assertNull(cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("xxxxxxxx", cache.getIfPresent("c"));
+        assertEquals(8, cache.weight());
+    }
+
+    @Test
+    public void replacedAndInvalidatedEntriesLeaveTheAccessOrder() {
+        ConcurrentTtlCache<String, String> cache =
+                new ConcurrentTtlCache<>(2, Long.MAX_VALUE, Long.MAX_VALUE, null, LENGTH);
+        cache.put("a", "1");
+        cache.put("a", "22");
+        cache.put("b", "3");
+        cache.invalidate("b");
+        cache.put("c", "4");
+
+        assertEquals("22", cache.getIfPresent("a"));
+        assertEquals("4", cache.getIfPresent("c"));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.weight());
+        assertEquals(0, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void staysWithinBoundUnderConcurrentLoads() throws Exception {
+        final ConcurrentTtlCache<Integer, Integer> cache =
+                new ConcurrentTtlCache<>(100, Long.MAX_VALUE, Long.MAX_VALUE, null, null);
+        final ConcurrentTtlCache.Loader<Integer, Integer> loader = new ConcurrentTtlCache.Loader<Integer, Integer>() {
+            @Override
+            public Integer load(Integer key) {
+                return key;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            int key = (i * 31 + seed) % 1000;
+                            assertEquals(Integer.valueOf(key), cache.get(key, loader));
+                        }
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        cache.cleanUp();
+        cache.put(-1, -1);
+        assertTrue(cache.size() <= 100);
+        assertEquals(cache.size(), cache.weight());
+    }
+
+}
@@ -0,0 +1,120 @@
+package spnego;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class HostNameCanonicalizerTest {
+
+    /**
+     * Stand-in for DNS, answering CNAME lookups from a map and counting queries.
+     */
+    private static final class MapResolver implements HostNameCanonicalizer.Resolver {
+
+        private final Map<String, String> cnames = new HashMap<>();
+        private final AtomicInteger queries = new AtomicInteger();
+        private volatile boolean failing;
+
+        @Override
+        public String resolveCanonicalName(String host) throws Exception {
+            queries.incrementAndGet();
+            if (failing) throw new Exception("DNS unavailable");
+            return cnames.get(host);
+        }
+
+    }
+
+    private final MapResolver resolver = new MapResolver();
+
+    private final HostNameCanonicalizer canonicalizer = new HostNameCanonicalizer(resolver, 60000, 60000);
+
+    @Test
+    public void followsCnameChain() {
+        resolver.cnames.put("www.example.com", "lb.example.com.");
+        resolver.cnames.put("lb.example.com", "Web01.Example.com");
+        assertEquals("web01.example.com", canonicalizer.canonicalize("WWW.example.com"));
+    }
+
+    @Test
+    public void keepsHostWithoutCname() {
+        assertEquals("web01.example.com", canonicalizer.canonicalize("web01.example.com."));
+    }
+
+    @Test
+    public void stopsAtCnameLoop() {
+        resolver.cnames.put("a.example.com", "b.example.com");
+        resolver.cnames.put("b.example.com", "a.example.com");
+        canonicalizer.canonicalize("a.example.com");
+        assertEquals(8, resolver.queries.get());
+    }
+
+    @Test
+    public void resolvesOncePerHost() {
+        resolver.cnames.put("www.example.com", "web01.example.com");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("web01.example.com", canonicalizer.canonicalize("www.example.com"));
+        }
+        assertEquals(2, resolver.queries.get());
+    }
+
+    @Test
+    public void cachesFailures() {
+        resolver.failing = true;
+        assertEquals("www.example.com", canonicalizer.canonicalize("www.example.com"));
+        assertEquals("www.example.com", canonicalizer.canonicalize("www.example.com"));
+        assertEquals(1, resolver.queries.get());
+    }
+
+    @Test
+    public void prefersAliases() {
+        resolver.cnames.put("www.example.com", "web01.example.com");
+        canonicalizer.addAlias("www.example.com", "web02.example.com");
+        assertEquals("web02.example.com", canonicalizer.canonicalize("www.example.com"));
+        assertEquals(0, resolver.queries.get());
+    }
+
+    @Test
+    public void doesNotResolveIpLiterals() {
+        assertEquals("10.0.0.1", canonicalizer.canonicalize("10.0.0.1"));
+        assertEquals("[::1]", canonicalizer.canonicalize("[::1]"));
+        assertEquals(0, resolver.queries.get());
+    }
+
+    @Test
+    public void canonicalizesHostOfSpn() {
+        resolver.cnames.put("www.example.com", "web01.example.com");
+        assertEquals("HTTP/web01.example.com", canonicalizer.canonicalizeSPN("HTTP/www.example.com"));
+        assertEquals("HTTP@web01.example.com", canonicalizer.canonicalizeSPN("HTTP@www.example.com"));
+        assertEquals("HTTP/web01.example.com:8443@EXAMPLE.COM",
+                canonicalizer.canonicalizeSPN("HTTP/www.example.com:8443@EXAMPLE.COM"));
+    }
+
+    @Test
+    public void passesHostsThroughByDefault() {
+        assertEquals("WWW.Example.com", HostNameCanonicalizer.getDefault().canonicalize("WWW.Example.com"));
+        assertEquals("HTTP/WWW.Example.com", HostNameCanonicalizer.getDefault().canonicalizeSPN("HTTP/WWW.Example.com"));
+
+        HostNameCanonicalizer aliasesOnly = new HostNameCanonicalizer(null, 0, 0);
+        aliasesOnly.addAlias("www.example.com", "web02.example.com");
+        assertEquals("web02.example.com", aliasesOnly.canonicalize("WWW.example.com"));
+        assertEquals("other.example.com", aliasesOnly.canonicalize("other.example.com"));
+    }
+
+    @Test
+    public void parsesSearchDomains() throws Exception {
+        assertEquals(Arrays.asList("corp.example.com", "example.com"), HostNameCanonicalizer.parseSearchDomains(
+                new StringReader("# comment\nnameserver 10.0.0.53\nsearch corp.example.com example.com\n")));
+        assertEquals(Collections.singletonList("example.com"), HostNameCanonicalizer.parseSearchDomains(
+                new StringReader("search other.example.com\ndomain example.com\n")));
+        assertEquals(Collections.<String>emptyList(), HostNameCanonicalizer.parseSearchDomains(
+                new StringReader("nameserver 10.0.0.53\n")));
+    }
+
+}